@@ -1,13 +1,1029 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 enum Level {
     // Ordinal : 0, 1, 2
     INFO, WARNING, ERROR
 }
 
+// What a producer should do when the ring buffer is full.
+enum WaitPolicy {
+    BLOCK,          // Caller waits until the consumer frees a slot. Nothing is lost.
+    DROP_OLDEST,    // Oldest pending event is discarded to make room for the new one.
+    DROP_NEW        // New event is discarded. Caller never waits.
+}
+
+// Bounded multi-producer ring buffer. Slots are preallocated once, so publishing an event does not allocate.
+// Each slot carries a sequence number that tells whether it is free for the producer of lap N or holds data for the consumer of lap N.
+class LogRingBuffer {
+
+    private static final long CLOSED = Long.MAX_VALUE;     // Head once close() was called : no slot can be claimed
+
+    private final int mask;
+    private final String[] messages;
+    private final Level[] levels;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();   // Next slot to publish into
+    private final AtomicLong tail = new AtomicLong();   // Next slot to consume from
+
+    LogRingBuffer(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two and at least 2");
+        }
+        this.mask = capacity - 1;
+        this.messages = new String[capacity];
+        this.levels = new Level[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Returns false when the buffer is full or closed.
+    boolean offer(String message, Level level) {
+        while (true) {
+            long position = head.get();
+            if (position == CLOSED) {
+                return false;
+            }
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    messages[index] = message;
+                    levels[index] = level;
+                    sequences.set(index, position + 1);  // Publish : the consumer can read this slot now
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+            // Another producer claimed the slot first. Retry with the new head.
+        }
+    }
+
+    // Takes one event out of the buffer and hands it to the sink. Returns false when the buffer is empty.
+    // Safe to call from producers too, which is how DROP_OLDEST evicts the oldest event.
+    boolean poll(StringBuilder sink) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    if (sink != null) {
+                        sink.append(levels[index]).append(" : ").append(messages[index]).append(System.lineSeparator());
+                    }
+                    messages[index] = null;
+                    levels[index] = null;
+                    sequences.set(index, position + mask + 1);   // Free the slot for the next lap
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    // Stops new offers. Returns the position after the last claimed slot : a producer may still be publishing into it.
+    long close() {
+        return head.getAndSet(CLOSED);
+    }
+
+    boolean isClosed() {
+        return head.get() == CLOSED;
+    }
+
+    // After close(), takes every remaining event, waiting for producers that claimed a slot but haven't published it yet.
+    void drainClosed(long end, StringBuilder sink) {
+        while (tail.get() < end) {
+            if (!poll(sink)) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+}
+
+// Destination of formatted log lines. The Logger writes to the console unless another appender is set.
+interface LogAppender {
+
+    void append(CharSequence text);
+
+    default void close() {
+    }
+}
+
+class ConsoleAppender implements LogAppender {
+
+    @Override
+    public void append(CharSequence text) {
+        System.out.print(text);
+        System.out.flush();
+    }
+}
+
+// One file of the rolling appender, mapped into memory for its whole size.
+// Writers reserve a byte range with a single atomic add and copy into it, so they never lock each other out.
+class LogSegment {
+
+    final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicInteger end = new AtomicInteger();      // End of the last successful write, the length the file is truncated to
+    final AtomicInteger inFlight = new AtomicInteger();         // Writers currently copying into this segment
+    volatile long deadlineNanos = Long.MAX_VALUE;
+
+    LogSegment(Path path, int capacity) throws IOException {
+        this.path = path;
+        this.capacity = capacity;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    // Returns false when the bytes don't fit. Once a reservation fails, every later one fails too, so the file never has holes.
+    boolean tryWrite(byte[] bytes) {
+        int start = reserved.getAndAdd(bytes.length);
+        if (start < 0 || start + bytes.length > capacity) {    // start < 0 only after an int overflow on a very busy full segment
+            reserved.set(capacity);
+            return false;
+        }
+        buffer.put(start, bytes);
+        end.accumulateAndGet(start + bytes.length, Math::max);
+        return true;
+    }
+
+    // Called once no writer is left. Makes the data durable and drops the unused tail of the mapping.
+    void seal() throws IOException {
+        buffer.force();
+        channel.truncate(end.get());
+        channel.close();
+    }
+
+    void discard() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+}
+
+// Appends log lines into memory-mapped segment files, letting the OS page cache absorb the write cost.
+// A segment rolls when it is full or older than the roll interval. The next segment is always prepared in the background,
+// so a roll is a reference swap and writers keep going while the old segment is sealed and old files are deleted.
+class MappedRollingFileAppender implements LogAppender {
+
+    private static final long SEAL_WAIT_NANOS = 50_000L;
+
+    private final Path directory;
+    private final String baseName;
+    private final int segmentSize;
+    private final long rollIntervalNanos;
+    private final int maxSegments;
+    private final AtomicLong nextIndex;
+    private final ExecutorService background = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "log-segment-roller");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile LogSegment current;
+    private LogSegment spare;
+    private volatile boolean closed;
+    private final AtomicLong droppedEntries = new AtomicLong();
+
+    MappedRollingFileAppender(Path directory, String baseName, int segmentSize, Duration rollInterval, int maxSegments) {
+        if (segmentSize <= 0 || rollInterval.isNegative() || rollInterval.isZero() || maxSegments < 1) {
+            throw new IllegalArgumentException("Segment size, roll interval and retention must be positive");
+        }
+        this.directory = directory;
+        this.baseName = baseName;
+        this.segmentSize = segmentSize;
+        this.rollIntervalNanos = rollInterval.toNanos();
+        this.maxSegments = maxSegments;
+        try {
+            Files.createDirectories(directory);
+            this.nextIndex = new AtomicLong(lastSegmentIndex() + 1);   // Continue after the segments of a previous run
+            this.current = activate(openSegment());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open log segment in " + directory, e);
+        }
+        background.execute(this::prepareSpare);
+    }
+
+    // Never throws for oversize or late writes, because the async consumer calls it : those entries are dropped and counted.
+    @Override
+    public void append(CharSequence text) {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= segmentSize) {
+            write(bytes);
+            return;
+        }
+        // A batch from the async writer can be larger than a segment. Split it at line ends into pieces that fit.
+        int start = 0;
+        while (start < bytes.length) {
+            int limit = Math.min(bytes.length, start + segmentSize);
+            int cut = limit == bytes.length ? limit : lastLineEnd(bytes, start, limit);
+            if (cut > start) {
+                write(Arrays.copyOfRange(bytes, start, cut));
+                start = cut;
+            } else {    // A single line longer than a segment
+                start = nextLineEnd(bytes, start);
+                droppedEntries.incrementAndGet();
+            }
+        }
+    }
+
+    // Index just past the last '\n' in [from, to), or from when there is none.
+    private static int lastLineEnd(byte[] bytes, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return from;
+    }
+
+    private static int nextLineEnd(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return bytes.length;
+    }
+
+    private void write(byte[] bytes) {
+        while (true) {
+            if (closed) {
+                droppedEntries.incrementAndGet();
+                return;
+            }
+            LogSegment segment = current;
+            segment.inFlight.incrementAndGet();
+            boolean written = false;
+            try {
+                // Checked again after inFlight is raised : close() seals the last segment once it sees inFlight at zero,
+                // so a writer that got past the first check while close() ran must not write into it.
+                if (!closed && segment == current && System.nanoTime() < segment.deadlineNanos) {
+                    written = segment.tryWrite(bytes);
+                }
+            } finally {
+                segment.inFlight.decrementAndGet();
+            }
+            if (written) {
+                return;
+            }
+            roll(segment);
+        }
+    }
+
+    private void roll(LogSegment full) {
+        synchronized (this) {
+            if (current != full || closed) {
+                return;     // Another writer already rolled it
+            }
+            LogSegment next = spare;
+            spare = null;
+            if (next == null) {     // Rolling faster than the background thread can prepare segments
+                try {
+                    next = openSegment();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to roll log segment", e);
+                }
+            }
+            current = activate(next);
+        }
+        background.execute(() -> sealAndRetain(full));
+        background.execute(this::prepareSpare);
+    }
+
+    private synchronized void prepareSpare() {
+        if (spare != null || closed) {
+            return;
+        }
+        try {
+            spare = openSegment();
+        } catch (IOException e) {
+            // Writers will open the segment themselves on the next roll
+        }
+    }
+
+    private void sealAndRetain(LogSegment segment) {
+        while (segment.inFlight.get() > 0) {
+            LockSupport.parkNanos(SEAL_WAIT_NANOS);
+        }
+        try {
+            segment.seal();
+            List<Path> segments = listSegments();
+            LogSegment live = current;
+            LogSegment pending = spare;
+            segments.removeIf(path -> path.equals(live.path) || (pending != null && path.equals(pending.path)));
+            for (int i = 0; i < segments.size() - (maxSegments - 1); i++) {     // The live segment counts towards retention
+                Files.deleteIfExists(segments.get(i));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to seal log segment " + segment.path + ": " + e.getMessage());
+        }
+    }
+
+    private LogSegment activate(LogSegment segment) {
+        segment.deadlineNanos = System.nanoTime() + rollIntervalNanos;
+        return segment;
+    }
+
+    private LogSegment openSegment() throws IOException {
+        return new LogSegment(directory.resolve(String.format("%s-%06d.log", baseName, nextIndex.getAndIncrement())), segmentSize);
+    }
+
+    // Segment names are zero padded, so name order is creation order.
+    private List<Path> listSegments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (var stream = Files.newDirectoryStream(directory, baseName + "-*.log")) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private long lastSegmentIndex() throws IOException {
+        List<Path> segments = listSegments();
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        String name = segments.get(segments.size() - 1).getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(baseName.length() + 1, name.length() - ".log".length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Entries longer than a segment, and writes that arrived after close().
+    long getDroppedCount() {
+        return droppedEntries.get();
+    }
+
+    // Seals the live segment so everything written so far is on disk. Called by the Logger on a clean shutdown.
+    @Override
+    public void close() {
+        LogSegment last;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            last = current;
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(10, TimeUnit.SECONDS);
+            sealAndRetain(last);
+            synchronized (this) {
+                if (spare != null) {
+                    spare.discard();
+                    spare = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Failed to discard spare log segment: " + e.getMessage());
+        }
+    }
+}
+
+// Single consumer thread. It drains the ring buffer in batches and writes each batch with one call, so the appender is called once per batch, not once per event.
+// An appender failure loses that batch but never the thread : if the consumer died, BLOCK producers would wait forever.
+class AsyncLogWriter implements Runnable {
+
+    private static final long IDLE_PARK_NANOS = 100_000L;
+
+    private final LogRingBuffer buffer;
+    private final int batchSize;
+    private final StringBuilder batch = new StringBuilder(4096);
+    private volatile boolean running = true;
+
+    AsyncLogWriter(LogRingBuffer buffer, int batchSize) {
+        this.buffer = buffer;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        while (drain() > 0) {
+            // Flush whatever was published before shutdown
+        }
+    }
+
+    private int drain() {
+        int count = 0;
+        while (count < batchSize && buffer.poll(batch)) {
+            count++;
+        }
+        if (count > 0) {
+            try {
+                Logger.INSTANCE.appender().append(batch);
+            } catch (RuntimeException e) {
+                Logger.INSTANCE.countDropped(count);
+                System.err.println("Async logger lost " + count + " events: " + e);
+            } finally {
+                batch.setLength(0);
+            }
+        }
+        return count;
+    }
+
+    void stop() {
+        running = false;
+    }
+}
+
+// Fills "{}" placeholders of a message template. Each thread reuses its own StringBuilder, so the only allocation is the final message.
+// Primitive overloads append the value directly, without boxing.
+class MessageFormatter {
+
+    private static final String PLACEHOLDER = "{}";
+    private static final int MAX_RETAINED_CAPACITY = 8192;   // Don't keep a huge buffer alive because of one huge message
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private MessageFormatter() {
+    }
+
+    static String format(String template, Object arg) {
+        StringBuilder sb = buffer();
+        int next = appendUntilPlaceholder(sb, template, 0);
+        if (next >= 0) {
+            sb.append(arg);
+        }
+        return finish(sb, template, next);
+    }
+
+    static String format(String template, long arg) {
+        StringBuilder sb = buffer();
+        int next = appendUntilPlaceholder(sb, template, 0);
+        if (next >= 0) {
+            sb.append(arg);
+        }
+        return finish(sb, template, next);
+    }
+
+    static String format(String template, double arg) {
+        StringBuilder sb = buffer();
+        int next = appendUntilPlaceholder(sb, template, 0);
+        if (next >= 0) {
+            sb.append(arg);
+        }
+        return finish(sb, template, next);
+    }
+
+    static String format(String template, Object first, Object second) {
+        StringBuilder sb = buffer();
+        int next = appendUntilPlaceholder(sb, template, 0);
+        if (next >= 0) {
+            sb.append(first);
+            next = appendUntilPlaceholder(sb, template, next);
+            if (next >= 0) {
+                sb.append(second);
+            }
+        }
+        return finish(sb, template, next);
+    }
+
+    static String format(String template, Object... args) {
+        StringBuilder sb = buffer();
+        int next = 0;
+        for (int i = 0; args != null && i < args.length && next >= 0; i++) {
+            next = appendUntilPlaceholder(sb, template, next);
+            if (next >= 0) {
+                sb.append(args[i]);
+            }
+        }
+        if (next >= 0) {
+            sb.append(template, next, template.length());
+        }
+        return sb.toString();
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder sb = BUFFER.get();
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            sb = new StringBuilder(256);
+            BUFFER.set(sb);
+        }
+        sb.setLength(0);
+        return sb;
+    }
+
+    // Copies the template up to the next placeholder. Returns the index just after it, or -1 when no placeholder is left.
+    private static int appendUntilPlaceholder(StringBuilder sb, String template, int from) {
+        int at = template.indexOf(PLACEHOLDER, from);
+        if (at < 0) {
+            sb.append(template, from, template.length());
+            return -1;
+        }
+        sb.append(template, from, at);
+        return at + PLACEHOLDER.length();
+    }
+
+    private static String finish(StringBuilder sb, String template, int from) {
+        if (from >= 0) {
+            sb.append(template, from, template.length());
+        }
+        return sb.toString();
+    }
+}
+
+// Limit for one Level : a token bucket of `burst` messages refilled at `permitsPerSecond`, applied per call site,
+// and an optional sample rate (1.0 keeps everything, 0.01 keeps about one message in a hundred).
+class LogRateLimit {
+
+    final long intervalNanos;
+    final long toleranceNanos;
+    final double sampleRate;
+
+    LogRateLimit(double permitsPerSecond, int burst, double sampleRate) {
+        if (permitsPerSecond <= 0 || burst < 1 || sampleRate <= 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive and sample rate must be in (0, 1]");
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.sampleRate = sampleRate;
+    }
+}
+
+// Budget of one call site. The token bucket is kept as a single "theoretical arrival time" (GCRA),
+// so accepting a message is one compare-and-set and never takes a lock.
+class CallSiteBudget {
+
+    final String key;
+    final Level level;
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+    final LongAdder suppressed = new LongAdder();
+
+    CallSiteBudget(String key, Level level) {
+        this.key = key;
+        this.level = level;
+    }
+
+    boolean tryAcquire(LogRateLimit limit, long now) {
+        while (true) {
+            long previous = theoreticalArrival.get();
+            long start = Math.max(previous, now);
+            if (start - now > limit.toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(previous, start + limit.intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    boolean isIdle(long now) {
+        return suppressed.sum() == 0 && theoreticalArrival.get() <= now;
+    }
+}
+
+// Per call site rate limiting and sampling. Template overloads are keyed by the template, which is the same for every call from one line of code.
+// Plain messages and suppliers are keyed by the calling class, method and line, since their text changes from call to call.
+class LogRateLimiter {
+
+    private static final int MAX_TRACKED_CALL_SITES = 10_000;   // Beyond this, new keys share one budget per Level
+    private static final String OVERFLOW_KEY = "<other messages>";
+
+    private final LogRateLimit[] limits = new LogRateLimit[Level.values().length];
+    private final List<Map<String, CallSiteBudget>> budgets = new ArrayList<>();    // One map per Level, so lookups don't build a composite key
+
+    LogRateLimiter() {
+        for (int i = 0; i < limits.length; i++) {
+            budgets.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    void setLimit(Level level, LogRateLimit limit) {
+        limits[level.ordinal()] = limit;
+        budgets.get(level.ordinal()).values().removeIf(budget -> budget.suppressed.sum() == 0);
+    }
+
+    boolean hasLimits() {
+        for (LogRateLimit limit : limits) {
+            if (limit != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isLimited(Level level) {
+        return limits[level.ordinal()] != null;
+    }
+
+    boolean tryAcquire(String key, Level level) {
+        LogRateLimit limit = limits[level.ordinal()];
+        if (limit == null) {
+            return true;
+        }
+        CallSiteBudget budget = budgetFor(key, level);
+        boolean sampled = limit.sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < limit.sampleRate;
+        if (sampled && budget.tryAcquire(limit, System.nanoTime())) {
+            return true;
+        }
+        budget.suppressed.increment();
+        return false;
+    }
+
+    private CallSiteBudget budgetFor(String key, Level level) {
+        Map<String, CallSiteBudget> levelBudgets = budgets.get(level.ordinal());
+        CallSiteBudget budget = levelBudgets.get(key);
+        if (budget != null) {
+            return budget;
+        }
+        if (levelBudgets.size() >= MAX_TRACKED_CALL_SITES) {
+            return levelBudgets.computeIfAbsent(OVERFLOW_KEY, ignored -> new CallSiteBudget(OVERFLOW_KEY, level));
+        }
+        return levelBudgets.computeIfAbsent(key, ignored -> new CallSiteBudget(key, level));
+    }
+
+    // Hands out "N similar messages suppressed" summaries and forgets call sites that are quiet again.
+    void drainSuppressed(BiConsumer<Level, String> summary) {
+        long now = System.nanoTime();
+        for (Map<String, CallSiteBudget> levelBudgets : budgets) {
+            for (CallSiteBudget budget : levelBudgets.values()) {
+                long count = budget.suppressed.sumThenReset();
+                if (count > 0) {
+                    summary.accept(budget.level, count + " similar messages suppressed: " + budget.key);
+                }
+            }
+            levelBudgets.values().removeIf(budget -> budget.isIdle(now));
+        }
+    }
+}
+
+// Layout of binary log files.
+//   Header    : magic (int), version (byte), start time in epoch micros (long)
+//   Template  : 0x00, id (varint), length (varint), UTF-8 bytes. Written once, the first time a template with "{}" slots is seen.
+//   Event     : kind (2 bits) | level ordinal (2 bits) | argument count (4 bits), then
+//               the template id (varint) or, for KIND_INLINE, the template text, then the micros since the previous event (varint),
+//               then each argument as a tag byte and its raw value.
+final class BinaryLogFormat {
+
+    static final int MAGIC = 0x424C4F47;   // "BLOG"
+    static final byte VERSION = 1;
+
+    static final int TEMPLATE_DEFINITION = 0x00;
+    static final int KIND_TEMPLATE = 1;
+    static final int KIND_INLINE = 2;       // Plain message, or the template dictionary is full : the text travels with the event
+    static final int MAX_ARGUMENTS = 15;
+
+    static final int TAG_NULL = 0;
+    static final int TAG_LONG = 1;
+    static final int TAG_DOUBLE = 2;
+    static final int TAG_STRING = 3;
+    static final int TAG_TRUE = 4;
+    static final int TAG_FALSE = 5;
+
+    private BinaryLogFormat() {
+    }
+}
+
+// Writes log events as compact binary frames : the template is stored once and each event carries only its id, a time delta,
+// the level and the raw arguments. Nothing is formatted on the logging thread.
+// Only templates with "{}" slots go into the dictionary. Plain messages are usually built by concatenation and almost never repeat,
+// so they are written inline and can't fill the dictionary up.
+class BinaryLogWriter implements Closeable {
+
+    private static final int MAX_TEMPLATES = 65_536;
+
+    private final OutputStream output;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position;
+    private final Map<String, Integer> templateIds = new HashMap<>();
+    private final long startNanos = System.nanoTime();
+    private long lastEventMicros;
+    private long bytesWritten;
+    private boolean closed;
+
+    BinaryLogWriter(Path file) throws IOException {
+        this.output = Files.newOutputStream(file);
+        writeInt(BinaryLogFormat.MAGIC);
+        writeByte(BinaryLogFormat.VERSION);
+        long startMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        writeInt((int) (startMicros >>> 32));
+        writeInt((int) startMicros);
+    }
+
+    synchronized void write(Level level, String message) {
+        beginEvent(level, message, 0, false);
+    }
+
+    synchronized void write(Level level, String template, long arg) {
+        if (beginEvent(level, template, 1)) {
+            writeLong(arg);
+        }
+    }
+
+    synchronized void write(Level level, String template, double arg) {
+        if (beginEvent(level, template, 1)) {
+            writeDouble(arg);
+        }
+    }
+
+    synchronized void write(Level level, String template, Object arg) {
+        if (beginEvent(level, template, 1)) {
+            writeObject(arg);
+        }
+    }
+
+    synchronized void write(Level level, String template, Object first, Object second) {
+        if (beginEvent(level, template, 2)) {
+            writeObject(first);
+            writeObject(second);
+        }
+    }
+
+    // An event holds at most MAX_ARGUMENTS arguments. Longer argument lists are formatted here and written as an inline message, so nothing is cut off.
+    synchronized void write(Level level, String template, Object[] args) {
+        int count = args == null ? 0 : args.length;
+        if (count > BinaryLogFormat.MAX_ARGUMENTS) {
+            beginEvent(level, MessageFormatter.format(template, args), 0, false);
+            return;
+        }
+        if (beginEvent(level, template, count)) {
+            for (int i = 0; i < count; i++) {
+                writeObject(args[i]);
+            }
+        }
+    }
+
+    synchronized long getBytesWritten() {
+        return bytesWritten + position;
+    }
+
+    private boolean beginEvent(Level level, String template, int argumentCount) {
+        return beginEvent(level, template, argumentCount, true);
+    }
+
+    private boolean beginEvent(Level level, String template, int argumentCount, boolean intern) {
+        if (closed) {
+            return false;
+        }
+        Integer id = intern ? templateIds.get(template) : null;
+        if (id == null && intern && templateIds.size() < MAX_TEMPLATES && template.contains("{}")) {
+            id = templateIds.size();
+            templateIds.put(template, id);
+            writeByte(BinaryLogFormat.TEMPLATE_DEFINITION);
+            writeVarint(id);
+            writeString(template);
+        }
+        int kind = id == null ? BinaryLogFormat.KIND_INLINE : BinaryLogFormat.KIND_TEMPLATE;
+        writeByte((kind << 6) | (level.ordinal() << 4) | argumentCount);
+        if (id == null) {
+            writeString(template);
+        } else {
+            writeVarint(id);
+        }
+        long nowMicros = (System.nanoTime() - startNanos) / 1_000;
+        writeVarint(Math.max(0, nowMicros - lastEventMicros));
+        lastEventMicros = Math.max(lastEventMicros, nowMicros);
+        return true;
+    }
+
+    private void writeObject(Object value) {
+        if (value == null) {
+            writeByte(BinaryLogFormat.TAG_NULL);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? BinaryLogFormat.TAG_TRUE : BinaryLogFormat.TAG_FALSE);
+        } else {
+            writeByte(BinaryLogFormat.TAG_STRING);
+            writeString(value.toString());
+        }
+    }
+
+    private void writeLong(long value) {
+        writeByte(BinaryLogFormat.TAG_LONG);
+        writeVarint((value << 1) ^ (value >> 63));   // Zig-zag, so small negative numbers stay small
+    }
+
+    private void writeDouble(double value) {
+        writeByte(BinaryLogFormat.TAG_DOUBLE);
+        long bits = Double.doubleToRawLongBits(value);
+        writeInt((int) (bits >>> 32));
+        writeInt((int) bits);
+    }
+
+    private void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        for (byte b : bytes) {
+            writeByte(b);
+        }
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeInt(int value) {
+        writeByte(value >>> 24);
+        writeByte(value >>> 16);
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    private void writeByte(int value) {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private void flushBuffer() {
+        try {
+            output.write(buffer, 0, position);
+            bytesWritten += position;
+            position = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write binary log", e);
+        }
+    }
+
+    synchronized void flush() {
+        flushBuffer();
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to flush binary log", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        try {
+            output.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close binary log", e);
+        }
+    }
+}
+
+// Offline tool that turns a binary log back into readable text, one "<timestamp> LEVEL : message" line per event.
+// Run with : java BinaryLogDecoder <file>
+class BinaryLogDecoder {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java BinaryLogDecoder <binary log file>");
+            return;
+        }
+        decode(Path.of(args[0]), System.out::println);
+    }
+
+    static void decode(Path file, Consumer<String> lines) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != BinaryLogFormat.MAGIC) {
+                throw new IOException("Not a binary log file: " + file);
+            }
+            byte version = input.readByte();
+            if (version != BinaryLogFormat.VERSION) {
+                throw new IOException("Unsupported binary log version: " + version);
+            }
+            long micros = input.readLong();
+            List<String> templates = new ArrayList<>();
+            Level[] levels = Level.values();
+            int type;
+            while ((type = input.read()) != -1) {
+                if (type == BinaryLogFormat.TEMPLATE_DEFINITION) {
+                    int id = (int) readVarint(input);
+                    if (id != templates.size()) {
+                        throw new IOException("Template ids out of order at id " + id);
+                    }
+                    templates.add(readString(input));
+                    continue;
+                }
+                int kind = type >>> 6;
+                Level level = levels[(type >>> 4) & 0x3];
+                String template = kind == BinaryLogFormat.KIND_INLINE ? readString(input) : templates.get((int) readVarint(input));
+                micros += readVarint(input);
+                Object[] arguments = new Object[type & 0xF];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = readArgument(input);
+                }
+                Instant timestamp = Instant.ofEpochSecond(micros / 1_000_000, (micros % 1_000_000) * 1_000);
+                lines.accept(timestamp + " " + level + " : " + MessageFormatter.format(template, arguments));
+            }
+        }
+    }
+
+    private static Object readArgument(DataInputStream input) throws IOException {
+        int tag = input.readUnsignedByte();
+        switch (tag) {
+            case BinaryLogFormat.TAG_NULL:
+                return null;
+            case BinaryLogFormat.TAG_LONG:
+                long zigZag = readVarint(input);
+                return (zigZag >>> 1) ^ -(zigZag & 1);
+            case BinaryLogFormat.TAG_DOUBLE:
+                return input.readDouble();
+            case BinaryLogFormat.TAG_STRING:
+                return readString(input);
+            case BinaryLogFormat.TAG_TRUE:
+                return Boolean.TRUE;
+            case BinaryLogFormat.TAG_FALSE:
+                return Boolean.FALSE;
+            default:
+                throw new IOException("Unknown argument tag: " + tag);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[(int) readVarint(input)];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarint(InputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.read();
+            if (b == -1) {
+                throw new EOFException("Truncated varint");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
+
 enum Logger {   // Enums are thread safe. This is one of the best way to achieve the singleton design patterm
     INSTANCE;
 
-    private Level currentLevel = Level.WARNING;
+    private volatile Level currentLevel = Level.WARNING;  // Volatile, so a level change made by one thread is seen by every other thread
+
+    // Async mode state. Null buffer means the logger is in the default synchronous mode.
+    private volatile LogRingBuffer buffer;
+    private volatile WaitPolicy waitPolicy = WaitPolicy.BLOCK;
+    private AsyncLogWriter writer;
+    private Thread writerThread;
+    private Thread shutdownHook;
+    private volatile LogAppender appender = new ConsoleAppender();
+    private final LogRateLimiter rateLimiter = new LogRateLimiter();
+    private volatile boolean rateLimited;
+    private volatile BinaryLogWriter binaryWriter;     // Non-null while binary mode is on
+    private ScheduledExecutorService summaryScheduler;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private static final StackWalker CALLER_WALKER = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
 
     public void setLogLevel(Level level) {
         this.currentLevel = level;
@@ -17,19 +1033,354 @@ enum Logger {   // Enums are thread safe. This is one of the best way to achieve
         return INSTANCE;
     }
 
+    // Replaces the destination of log lines. The previous appender is closed.
+    public synchronized void setAppender(LogAppender newAppender) {
+        if (newAppender == null) {
+            throw new IllegalArgumentException("Appender cannot be null");
+        }
+        if (buffer != null) {
+            throw new IllegalStateException("Disable async mode before changing the appender");
+        }
+        LogAppender previous = appender;
+        appender = newAppender;
+        previous.close();
+        registerShutdownHook();
+    }
+
+    LogAppender appender() {
+        return appender;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= currentLevel.ordinal();   // level.ordinal = 0 for INFO. CurrentLevel.ordinal = 1 for WARNING.
+    }
+
+    // Null removes the limit of that level. Suppressed counts are summarized every summaryInterval.
+    public synchronized void setRateLimit(Level level, LogRateLimit limit, Duration summaryInterval) {
+        if (level == null || summaryInterval == null || summaryInterval.isNegative() || summaryInterval.isZero()) {
+            throw new IllegalArgumentException("Level cannot be null and summary interval must be positive");
+        }
+        rateLimiter.setLimit(level, limit);
+        rateLimited = rateLimiter.hasLimits();
+        if (summaryScheduler != null) {
+            summaryScheduler.shutdown();
+            summaryScheduler = null;
+        }
+        if (rateLimited) {
+            summaryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "logger-suppression-summary");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = summaryInterval.toNanos();
+            summaryScheduler.scheduleAtFixedRate(this::flushSuppressedSummary, period, period, TimeUnit.NANOSECONDS);
+            registerShutdownHook();
+        }
+    }
+
+    // Writes the "N similar messages suppressed" lines now instead of waiting for the next summary.
+    public void flushSuppressedSummary() {
+        rateLimiter.drainSuppressed((level, summary) -> write(summary, level));
+    }
+
+    // Level check first, so suppressed levels never touch the rate limiter.
+    private boolean shouldLog(String callSite, Level level) {
+        return isEnabled(level) && (!rateLimited || rateLimiter.tryAcquire(callSite, level));
+    }
+
+    // For messages without a template. The stack is walked only when this level is actually rate limited.
+    private boolean shouldLogFromCaller(Level level) {
+        return isEnabled(level) && (!rateLimited || !rateLimiter.isLimited(level) || rateLimiter.tryAcquire(callerSite(), level));
+    }
+
+    // "Class.method:line" of the first frame outside the Logger.
+    private static String callerSite() {
+        return CALLER_WALKER.walk(frames -> frames
+                .filter(frame -> frame.getDeclaringClass() != Logger.class)
+                .findFirst()
+                .map(frame -> frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber())
+                .orElse("<unknown>"));
+    }
+
     public void log(String message, Level level) {
         if (message == null || level == null) {
             throw new IllegalArgumentException("Message and Level cannot be null");
         }
-        if (level.ordinal() >= currentLevel.ordinal()) {    // level.ordinal = 0 for INFO. CurrentLevel.ordinal = 1 for WARNING.
-            System.out.println(level + " : " + message);
+        if (shouldLogFromCaller(level)) {
+            BinaryLogWriter binary = binaryWriter;
+            if (binary != null) {
+                binary.write(level, message);
+            } else {
+                write(message, level);
+            }
+        }
+    }
+
+    // Parameterized overloads : "{}" placeholders are filled only when the level is enabled.
+    public void log(String template, Object arg, Level level) {
+        checkArguments(template, level);
+        if (shouldLog(template, level)) {
+            BinaryLogWriter binary = binaryWriter;
+            if (binary != null) {
+                binary.write(level, template, arg);
+            } else {
+                write(MessageFormatter.format(template, arg), level);
+            }
+        }
+    }
+
+    public void log(String template, long arg, Level level) {
+        checkArguments(template, level);
+        if (shouldLog(template, level)) {
+            BinaryLogWriter binary = binaryWriter;
+            if (binary != null) {
+                binary.write(level, template, arg);
+            } else {
+                write(MessageFormatter.format(template, arg), level);
+            }
+        }
+    }
+
+    public void log(String template, double arg, Level level) {
+        checkArguments(template, level);
+        if (shouldLog(template, level)) {
+            BinaryLogWriter binary = binaryWriter;
+            if (binary != null) {
+                binary.write(level, template, arg);
+            } else {
+                write(MessageFormatter.format(template, arg), level);
+            }
+        }
+    }
+
+    public void log(String template, Object first, Object second, Level level) {
+        checkArguments(template, level);
+        if (shouldLog(template, level)) {
+            BinaryLogWriter binary = binaryWriter;
+            if (binary != null) {
+                binary.write(level, template, first, second);
+            } else {
+                write(MessageFormatter.format(template, first, second), level);
+            }
+        }
+    }
+
+    public void log(String template, Level level, Object... args) {
+        checkArguments(template, level);
+        if (shouldLog(template, level)) {
+            BinaryLogWriter binary = binaryWriter;
+            if (binary != null) {
+                binary.write(level, template, args);
+            } else {
+                write(MessageFormatter.format(template, args), level);
+            }
+        }
+    }
+
+    // Lazy overload : the supplier runs only when the level is enabled.
+    public void log(Supplier<String> messageSupplier, Level level) {
+        if (messageSupplier == null || level == null) {
+            throw new IllegalArgumentException("Message supplier and Level cannot be null");
+        }
+        if (shouldLogFromCaller(level)) {
+            String message = messageSupplier.get();
+            BinaryLogWriter binary = binaryWriter;
+            if (binary != null) {
+                binary.write(level, message == null ? "null" : message);
+            } else {
+                write(message == null ? "null" : message, level);
+            }
+        }
+    }
+
+    private static void checkArguments(String template, Level level) {
+        if (template == null || level == null) {
+            throw new IllegalArgumentException("Message and Level cannot be null");
+        }
+    }
+
+    private void write(String message, Level level) {
+        LogRingBuffer ring = buffer;
+        if (ring == null) {
+            appender.append(level + " : " + message + System.lineSeparator());
+        } else {
+            publish(ring, message, level);
+        }
+    }
+
+    private void publish(LogRingBuffer ring, String message, Level level) {
+        while (!ring.offer(message, level)) {
+            if (ring.isClosed()) {  // Async mode was turned off after we read the buffer, or while we waited
+                appender.append(level + " : " + message + System.lineSeparator());
+                return;
+            }
+            switch (waitPolicy) {
+                case BLOCK:
+                    Thread.onSpinWait();
+                    Thread.yield();
+                    break;
+                case DROP_OLDEST:
+                    if (ring.poll(null)) {
+                        droppedEvents.incrementAndGet();
+                    }
+                    break;
+                case DROP_NEW:
+                default:
+                    droppedEvents.incrementAndGet();
+                    return;
+            }
+        }
+    }
+
+    // Binary mode : template overloads write compact frames to the file instead of formatted text. Decode with BinaryLogDecoder.
+    // Events are written synchronously by the calling thread and go only to the binary file : async mode and the appender are bypassed while it is on.
+    public synchronized void enableBinary(Path file) {
+        disableBinary();
+        try {
+            binaryWriter = new BinaryLogWriter(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open binary log " + file, e);
+        }
+        registerShutdownHook();
+    }
+
+    public synchronized void disableBinary() {
+        BinaryLogWriter binary = binaryWriter;
+        if (binary != null) {
+            binaryWriter = null;
+            binary.close();
+        }
+    }
+
+    // Opt-in async mode. Capacity must be a power of two.
+    public synchronized void enableAsync(int capacity, int batchSize, WaitPolicy policy) {
+        if (policy == null || batchSize < 1) {
+            throw new IllegalArgumentException("Policy cannot be null and batch size must be positive");
         }
+        disableAsync();
+        LogRingBuffer ring = new LogRingBuffer(capacity);
+        this.waitPolicy = policy;
+        this.writer = new AsyncLogWriter(ring, batchSize);
+        this.writerThread = new Thread(writer, "async-logger");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        registerShutdownHook();
+        this.buffer = ring;
+    }
+
+    // Switches back to synchronous mode after flushing every pending event.
+    public synchronized void disableAsync() {
+        if (buffer == null) {
+            return;
+        }
+        stopWriter();
+    }
+
+    // Registered once. On a clean shutdown pending async events are flushed and the appender is closed, so file appenders are durable.
+    private void registerShutdownHook() {
+        if (shutdownHook == null) {
+            shutdownHook = new Thread(this::flushOnShutdown, "logger-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    private synchronized void flushOnShutdown() {
+        if (rateLimited) {
+            flushSuppressedSummary();
+        }
+        if (buffer != null) {
+            stopWriter();
+        }
+        disableBinary();
+        appender.close();
+    }
+
+    private void stopWriter() {
+        LogRingBuffer ring = buffer;
+        buffer = null;  // New events go straight to the appender from here on
+        long end = ring.close();    // Producers that still hold the ring fall back to the appender too
+        writer.stop();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        StringBuilder residue = new StringBuilder();
+        ring.drainClosed(end, residue);     // Including slots claimed before close() and published after the writer stopped
+        if (residue.length() > 0) {
+            appender.append(residue);
+        }
+        writer = null;
+        writerThread = null;
+    }
+
+    public boolean isAsync() {
+        return buffer != null;
+    }
+
+    // Events dropped by the wait policy or lost when the appender failed under the async writer.
+    public long getDroppedCount() {
+        return droppedEvents.get();
+    }
+
+    void countDropped(int events) {
+        droppedEvents.addAndGet(events);
+    }
+}
+
+// Rough comparison of the old eager-concatenation style against the template and supplier overloads on a suppressed level.
+// Run with : java Solution bench
+class LoggerBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20_000_000;
+    private static final int MEASURED_ITERATIONS = 10_000_000;
+
+    static void run() {
+        Logger logger = Logger.getInstance();
+        logger.setLogLevel(Level.WARNING);  // INFO is suppressed, which is the case we want to be cheap
+
+        // Each call returns something derived from its work, summed into a sink that gets printed, so the JIT can't drop it
+        measure("eager concatenation", i -> {
+            String message = "Request " + i + " served";
+            logger.log(message, Level.INFO);
+            return message.length();
+        });
+        measure("template (long)", i -> {
+            logger.log("Request {} served", i, Level.INFO);
+            return i;
+        });
+        measure("supplier", i -> {
+            logger.log(() -> "Request " + i + " served", Level.INFO);
+            return i;
+        });
+    }
+
+    private interface Call {
+        long invoke(long i);
+    }
+
+    private static void measure(String name, Call call) {
+        long sink = 0;
+        for (long i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += call.invoke(i);
+        }
+        long start = System.nanoTime();
+        for (long i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink += call.invoke(i);
+        }
+        double nanosPerCall = (System.nanoTime() - start) / (double) MEASURED_ITERATIONS;
+        System.out.printf("%-26s : %6.2f ns/call  (%d)%n", name, nanosPerCall, sink);
     }
 }
 
 public class Solution {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException, IOException {
+
+        if (args.length > 0 && args[0].equals("bench")) {
+            LoggerBenchmark.run();
+            return;
+        }
 
         Logger logger = Logger.getInstance();
 
@@ -42,5 +1393,70 @@ public class Solution {
         } catch (Exception e) {
             logger.log("Issue in main method", Level.ERROR);
         }
+
+        // Parameterized and lazy logging : nothing is formatted for the suppressed INFO calls.
+        int retries = 3;
+        logger.log("Retrying request {} for the {} time", "GET /orders", retries, Level.INFO);      // Will not be logged
+        logger.log("Retry limit {} reached", retries, Level.ERROR);                                 // Will be logged
+        logger.log(() -> "Expensive diagnostic dump", Level.INFO);                                   // Supplier never runs
+
+        // Async mode : request threads only publish into the ring buffer, one background thread writes to stdout.
+        logger.enableAsync(1024, 128, WaitPolicy.DROP_NEW);
+        Thread[] workers = new Thread[4];
+        for (int i = 0; i < workers.length; i++) {
+            int worker = i;
+            workers[i] = new Thread(() -> {
+                for (int j = 0; j < 5; j++) {
+                    logger.log("Worker " + worker + " event " + j, Level.ERROR);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        logger.disableAsync();  // Flushes pending events. A shutdown hook does the same if the JVM exits first.
+        System.out.println("Dropped events : " + logger.getDroppedCount());
+
+        // Rate limiting : at most 5 ERROR lines per second per call site, the rest is summarized.
+        logger.setRateLimit(Level.ERROR, new LogRateLimit(5, 5, 1.0), Duration.ofSeconds(10));
+        for (int i = 0; i < 1_000; i++) {
+            logger.log("Payment gateway timeout for order {}", i, Level.ERROR);
+            logger.log("Inventory lookup failed for order " + i, Level.ERROR);    // Different text each time, limited by its line instead
+        }
+        logger.flushSuppressedSummary();
+        logger.setRateLimit(Level.ERROR, null, Duration.ofSeconds(10));
+
+        // File output : memory-mapped segments of 64 KB, rolled every hour, keeping the 5 newest files.
+        Path logDirectory = Path.of(System.getProperty("java.io.tmpdir"), "solution-logs");
+        logger.setAppender(new MappedRollingFileAppender(logDirectory, "app", 64 * 1024, Duration.ofHours(1), 5));
+        for (int i = 0; i < 5_000; i++) {
+            logger.log("Order {} failed validation", i, Level.ERROR);
+        }
+        logger.setAppender(new ConsoleAppender());  // Closes the file appender, sealing the live segment
+        System.out.println("Log segments written to " + logDirectory);
+
+        // Binary output : the same events as above, compared with the bytes the text lines would take.
+        Path binaryLog = Files.createTempFile("solution-log", ".blog");
+        long textBytes = 0;
+        logger.enableBinary(binaryLog);
+        for (int i = 0; i < 5_000; i++) {
+            logger.log("Order {} failed validation", i, Level.ERROR);
+            textBytes += (Level.ERROR + " : " + MessageFormatter.format("Order {} failed validation", i) + System.lineSeparator()).length();
+        }
+        logger.disableBinary();
+        long binaryBytes = Files.size(binaryLog);
+        System.out.printf("Text : %d bytes, binary : %d bytes (%.1fx smaller)%n", textBytes, binaryBytes, textBytes / (double) binaryBytes);
+        BinaryLogDecoder.decode(binaryLog, new Consumer<String>() {
+            private int printed;
+
+            @Override
+            public void accept(String line) {
+                if (printed++ < 3) {
+                    System.out.println(line);
+                }
+            }
+        });
+        Files.delete(binaryLog);
     }
 }
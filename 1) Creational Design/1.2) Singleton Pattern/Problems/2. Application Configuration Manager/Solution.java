@@ -1,16 +1,726 @@
-
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+// Types the typed accessors and handles can parse a value into.
+enum ConfigType {
+    INT(value -> Integer.valueOf(value.trim())),
+    LONG(value -> Long.valueOf(value.trim())),
+    BOOLEAN(ConfigType::parseBoolean),
+    DURATION(ConfigType::parseDuration),
+    LIST(ConfigType::parseList);
+
+    private final Function<String, Object> parser;
+
+    ConfigType(Function<String, Object> parser) {
+        this.parser = parser;
+    }
+
+    Object parse(String key, String value) {
+        try {
+            return parser.apply(value);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid " + name() + " value for " + key + ": " + value, e);
+        }
+    }
+
+    private static Boolean parseBoolean(String value) {
+        String trimmed = value.trim();
+        if (trimmed.equalsIgnoreCase("true")) {
+            return Boolean.TRUE;
+        }
+        if (trimmed.equalsIgnoreCase("false")) {
+            return Boolean.FALSE;
+        }
+        throw new IllegalArgumentException("Expected true or false");
+    }
+
+    // Accepts ISO-8601 (PT30S) or a number with a unit : 250ms, 30s, 5m, 2h, 1d.
+    private static Duration parseDuration(String value) {
+        String trimmed = value.trim().toLowerCase();
+        if (trimmed.startsWith("p")) {
+            return Duration.parse(trimmed.toUpperCase());
+        }
+        int unitStart = 0;
+        while (unitStart < trimmed.length() && Character.isDigit(trimmed.charAt(unitStart))) {
+            unitStart++;
+        }
+        long amount = Long.parseLong(trimmed.substring(0, unitStart));
+        switch (trimmed.substring(unitStart).trim()) {
+            case "ms":
+                return Duration.ofMillis(amount);
+            case "s":
+                return Duration.ofSeconds(amount);
+            case "m":
+                return Duration.ofMinutes(amount);
+            case "h":
+                return Duration.ofHours(amount);
+            case "d":
+                return Duration.ofDays(amount);
+            default:
+                throw new IllegalArgumentException("Unknown duration unit");
+        }
+    }
+
+    private static List<String> parseList(String value) {
+        List<String> items = new ArrayList<>();
+        for (String item : value.split(",")) {
+            if (!item.isBlank()) {
+                items.add(item.trim());
+            }
+        }
+        return List.copyOf(items);
+    }
+}
+
+// Immutable view of the whole configuration at one point in time.
+// A reader that holds a snapshot sees every key from the same load, even if a refresh happens meanwhile.
+// Typed values are parsed at most once per snapshot. A refresh publishes a new snapshot, which starts with an empty cache.
+final class ConfigSnapshot {
+
+    private final long version;
+    private final Map<String, String> values;
+    private final Map<ConfigType, Map<String, Object>> parsed;
+    private final Object[] handleValues;    // Pre-parsed values of the registered handles, indexed by handle
+
+    ConfigSnapshot(long version, Map<String, String> values) {
+        this.version = version;
+        this.values = Map.copyOf(values);
+        this.parsed = new EnumMap<>(ConfigType.class);
+        for (ConfigType type : ConfigType.values()) {
+            parsed.put(type, new ConcurrentHashMap<>());
+        }
+        this.handleValues = new Object[0];
+    }
+
+    private ConfigSnapshot(ConfigSnapshot source, Object[] handleValues) {
+        this.version = source.version;
+        this.values = source.values;
+        this.parsed = source.parsed;
+        this.handleValues = handleValues;
+    }
+
+    // Same configuration, with every handle resolved against it.
+    ConfigSnapshot bind(List<ConfigHandle<?>> handles) {
+        Object[] resolved = new Object[handles.size()];
+        for (int i = 0; i < resolved.length; i++) {
+            resolved[i] = handles.get(i).resolve(this);
+        }
+        return new ConfigSnapshot(this, resolved);
+    }
+
+    Object handleValue(int index) {
+        return handleValues[index];
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String get(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    Object getTyped(ConfigType type, String key, Object defaultValue) {
+        String raw = values.get(key);
+        if (raw == null) {
+            return defaultValue;
+        }
+        Map<String, Object> cache = parsed.get(type);
+        Object value = cache.get(key);
+        if (value == null) {
+            value = type.parse(key, raw);
+            cache.putIfAbsent(key, value);
+        }
+        return value;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return (Integer) getTyped(ConfigType.INT, key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        return (Long) getTyped(ConfigType.LONG, key, defaultValue);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return (Boolean) getTyped(ConfigType.BOOLEAN, key, defaultValue);
+    }
+
+    public Duration getDuration(String key, Duration defaultValue) {
+        return (Duration) getTyped(ConfigType.DURATION, key, defaultValue);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> getList(String key, List<String> defaultValue) {
+        return (List<String>) getTyped(ConfigType.LIST, key, defaultValue);
+    }
+
+    public Map<String, String> asMap() {
+        return values;
+    }
+}
+
+// Pre-resolved typed view of one key. Reading it is one volatile read of the current snapshot plus an array index :
+// no hash lookup and no parsing. Every published snapshot re-resolves all handles, so they follow refreshes automatically.
+final class ConfigHandle<T> {
+
+    private final ConfigurationManager owner;
+    private final int index;
+    private final String key;
+    private final ConfigType type;
+    private final T defaultValue;
+
+    ConfigHandle(ConfigurationManager owner, int index, String key, ConfigType type, T defaultValue) {
+        this.owner = owner;
+        this.index = index;
+        this.key = key;
+        this.type = type;
+        this.defaultValue = defaultValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get() {
+        return (T) owner.getSnapshot().handleValue(index);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    // A bad value must not fail the whole reload : the handle falls back to its default.
+    Object resolve(ConfigSnapshot snapshot) {
+        try {
+            return snapshot.getTyped(type, key, defaultValue);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + ", using default " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
+
+// One key that was added (oldValue is null), removed (newValue is null) or modified by a reload.
+final class ConfigChange {
+
+    private final String key;
+    private final String oldValue;
+    private final String newValue;
+
+    ConfigChange(String key, String oldValue, String newValue) {
+        this.key = key;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getOldValue() {
+        return oldValue;
+    }
+
+    public String getNewValue() {
+        return newValue;
+    }
+
+    @Override
+    public String toString() {
+        return key + ": " + oldValue + " -> " + newValue;
+    }
+}
+
+interface ConfigChangeListener {
+
+    // Receives only the changed keys the listener subscribed to, plus the snapshot they belong to.
+    void onChange(List<ConfigChange> changes, ConfigSnapshot snapshot);
+}
+
+// Watches the directory of one configuration file. A burst of file events (editors often write a file several times)
+// is debounced into a single reload, and the reload is skipped when the file content didn't actually change.
+class ConfigFileWatcher implements Runnable {
+
+    private final Path file;
+    private final long debounceNanos;
+    private final Runnable reload;
+    private final WatchService watchService;
+
+    ConfigFileWatcher(Path file, Duration debounce, Runnable reload) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.debounceNanos = debounce.toNanos();
+        this.reload = reload;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                if (!isAboutOurFile(watchService.take())) {
+                    continue;
+                }
+                long deadline = System.nanoTime() + debounceNanos;
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {    // Quiet period : every new event restarts the timer
+                    WatchKey key = watchService.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (key != null && isAboutOurFile(key)) {
+                        deadline = System.nanoTime() + debounceNanos;
+                    }
+                }
+                reload.run();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Watcher stopped
+        }
+    }
+
+    // True when the key carries an event for our file.
+    private boolean isAboutOurFile(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (context instanceof Path && file.getFileName().equals(context)) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+
+    void close() throws IOException {
+        watchService.close();
+    }
+}
+
+// Merges the configuration layers by precedence and resolves ${key} / ${key:default} placeholders once, at merge time.
+// The result is flat : a lookup is a single map read no matter how many layers there are.
+final class ConfigMerger {
+
+    private ConfigMerger() {
+    }
+
+    // Later file layers override earlier ones. System properties, then environment variables, override any key the files define.
+    // A key like app.theme is looked up as the system property app.theme and the environment variable APP_THEME.
+    static Map<String, String> merge(List<Map<String, String>> fileLayers, Map<String, String> systemProperties, Map<String, String> environment) {
+        Map<String, String> merged = new HashMap<>();
+        for (Map<String, String> layer : fileLayers) {
+            merged.putAll(layer);
+        }
+        for (Map.Entry<String, String> entry : merged.entrySet()) {
+            String fromEnvironment = environment.get(environmentName(entry.getKey()));
+            if (fromEnvironment != null) {
+                entry.setValue(fromEnvironment);
+            }
+            String fromSystem = systemProperties.get(entry.getKey());
+            if (fromSystem != null) {
+                entry.setValue(fromSystem);
+            }
+        }
+        return resolvePlaceholders(merged, systemProperties, environment);
+    }
+
+    static String environmentName(String key) {
+        return key.toUpperCase().replace('.', '_').replace('-', '_');
+    }
+
+    private static Map<String, String> resolvePlaceholders(Map<String, String> merged, Map<String, String> systemProperties, Map<String, String> environment) {
+        Map<String, String> resolved = new HashMap<>();
+        for (String key : merged.keySet()) {
+            resolve(key, merged, resolved, new LinkedHashSet<>(), systemProperties, environment);
+        }
+        return resolved;
+    }
+
+    private static String resolve(String key, Map<String, String> merged, Map<String, String> resolved, Set<String> inProgress,
+                                  Map<String, String> systemProperties, Map<String, String> environment) {
+        String done = resolved.get(key);
+        if (done != null) {
+            return done;
+        }
+        if (!inProgress.add(key)) {
+            throw new IllegalArgumentException("Placeholder cycle: " + String.join(" -> ", inProgress) + " -> " + key);
+        }
+        String raw = merged.get(key);
+        StringBuilder value = new StringBuilder(raw.length());
+        int from = 0;
+        int start;
+        while ((start = raw.indexOf("${", from)) >= 0) {
+            int end = raw.indexOf('}', start + 2);
+            if (end < 0) {
+                break;  // Not a placeholder, keep the rest as it is
+            }
+            value.append(raw, from, start);
+            String reference = raw.substring(start + 2, end);
+            String defaultValue = null;
+            int colon = reference.indexOf(':');
+            if (colon >= 0) {
+                defaultValue = reference.substring(colon + 1);
+                reference = reference.substring(0, colon);
+            }
+            String replacement;
+            if (merged.containsKey(reference)) {
+                replacement = resolve(reference, merged, resolved, inProgress, systemProperties, environment);
+            } else if (systemProperties.containsKey(reference)) {
+                replacement = systemProperties.get(reference);
+            } else if (environment.containsKey(reference)) {
+                replacement = environment.get(reference);
+            } else if (defaultValue != null) {
+                replacement = defaultValue;
+            } else {
+                throw new IllegalArgumentException("Unresolved placeholder ${" + reference + "} in " + key);
+            }
+            value.append(replacement);
+            from = end + 1;
+        }
+        value.append(raw, from, raw.length());
+        inProgress.remove(key);
+        String result = value.toString();
+        resolved.put(key, result);
+        return result;
+    }
+}
+
+// What the cached configuration was built from. The cache is only used when all of it still matches.
+final class ConfigSourceStamp {
+
+    final long sourceLastModified;
+    final long sourceLength;
+    final int environmentHash;
+    final int systemPropertiesHash;
+
+    ConfigSourceStamp(long sourceLastModified, long sourceLength, int environmentHash, int systemPropertiesHash) {
+        this.sourceLastModified = sourceLastModified;
+        this.sourceLength = sourceLength;
+        this.environmentHash = environmentHash;
+        this.systemPropertiesHash = systemPropertiesHash;
+    }
+
+    boolean matches(ConfigSourceStamp other) {
+        return sourceLastModified == other.sourceLastModified && sourceLength == other.sourceLength
+                && environmentHash == other.environmentHash && systemPropertiesHash == other.systemPropertiesHash;
+    }
+}
+
+// Read-only map over a memory-mapped config cache. Keys are kept sorted by their UTF-8 bytes, so get() is a binary search
+// over the key table, and strings are decoded from the pool only when they are asked for.
+// Fine for a few lookups, but every get() encodes the key and decodes the value : decode() turns it into an ordinary map.
+final class MappedConfigTable extends AbstractMap<String, String> {
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int tableOffset;
+    private final int poolOffset;
+
+    MappedConfigTable(ByteBuffer buffer, int count, int tableOffset) {
+        this.buffer = buffer;
+        this.count = count;
+        this.tableOffset = tableOffset;
+        this.poolOffset = tableOffset + count * BinaryConfigCache.ENTRY_SIZE;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        byte[] wanted = ((String) key).getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = tableOffset + middle * BinaryConfigCache.ENTRY_SIZE;
+            int comparison = compare(buffer.getInt(entry), buffer.getInt(entry + 4), wanted);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return string(buffer.getInt(entry + 8), buffer.getInt(entry + 12));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    // Every entry as a plain map. A value stored once in the pool is decoded once and shared by its keys.
+    Map<String, String> decode() {
+        Map<Integer, String> valuesByOffset = new HashMap<>();
+        Map<String, String> decoded = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            int entry = tableOffset + i * BinaryConfigCache.ENTRY_SIZE;
+            int valueOffset = buffer.getInt(entry + 8);
+            String value = valuesByOffset.get(valueOffset);
+            if (value == null) {
+                value = string(valueOffset, buffer.getInt(entry + 12));
+                valuesByOffset.put(valueOffset, value);
+            }
+            decoded.put(string(buffer.getInt(entry), buffer.getInt(entry + 4)), value);
+        }
+        return decoded;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < count;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (next >= count) {
+                            throw new NoSuchElementException();
+                        }
+                        int entry = tableOffset + next++ * BinaryConfigCache.ENTRY_SIZE;
+                        return new SimpleImmutableEntry<>(string(buffer.getInt(entry), buffer.getInt(entry + 4)),
+                                string(buffer.getInt(entry + 8), buffer.getInt(entry + 12)));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    // Unsigned byte order, the same order the cache writer sorted the keys in.
+    private int compare(int offset, int length, byte[] wanted) {
+        int common = Math.min(length, wanted.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (buffer.get(poolOffset + offset + i) & 0xFF) - (wanted[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - wanted.length;
+    }
+
+    private String string(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(poolOffset + offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Precompiled binary snapshot of the merged configuration, so startup can skip Properties parsing and placeholder resolution.
+//   Header    : magic, version, source stamp (last modified, length, environment hash, system properties hash), entry count
+//   Key table : one entry per key, sorted by key bytes : key offset, key length, value offset, value length (4 ints)
+//   Pool      : UTF-8 bytes of every distinct key and value, stored once
+final class BinaryConfigCache {
+
+    static final int ENTRY_SIZE = 16;
+    private static final int MAGIC = 0x43464743;   // "CFGC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+    private BinaryConfigCache() {
+    }
+
+    // Returns null when the cache is missing, corrupt or was built from different sources.
+    // The entries are decoded into an ordinary map, so reads after startup cost what they cost without the cache : what is
+    // skipped is parsing the properties, merging the layers and resolving placeholders.
+    static Map<String, String> open(Path cacheFile, ConfigSourceStamp expected) {
+        if (cacheFile == null || !Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            ConfigSourceStamp stamp = new ConfigSourceStamp(buffer.getLong(8), buffer.getLong(16), buffer.getInt(24), buffer.getInt(28));
+            int count = buffer.getInt(32);
+            if (!stamp.matches(expected) || count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > buffer.capacity()) {
+                return null;
+            }
+            return new MappedConfigTable(buffer, count, HEADER_SIZE).decode();
+        } catch (IOException | IndexOutOfBoundsException e) {     // Offsets past the end of a truncated or corrupt file
+            return null;
+        }
+    }
+
+    // Written to a temporary file and moved into place, so a reader never maps a half-written cache.
+    static void write(Path cacheFile, Map<String, String> values, ConfigSourceStamp stamp) throws IOException {
+        List<byte[]> keys = new ArrayList<>();
+        Map<String, byte[]> byKey = new HashMap<>();
+        for (String key : values.keySet()) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            keys.add(bytes);
+            byKey.put(key, bytes);
+        }
+        keys.sort(Arrays::compareUnsigned);
+
+        Map<String, Integer> poolOffsets = new HashMap<>();
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        ByteBuffer table = ByteBuffer.allocate(keys.size() * ENTRY_SIZE);
+        for (byte[] keyBytes : keys) {
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            byte[] valueBytes = values.get(key).getBytes(StandardCharsets.UTF_8);
+            table.putInt(intern(key, keyBytes, poolOffsets, pool)).putInt(keyBytes.length);
+            table.putInt(intern(values.get(key), valueBytes, poolOffsets, pool)).putInt(valueBytes.length);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION)
+                .putLong(stamp.sourceLastModified).putLong(stamp.sourceLength)
+                .putInt(stamp.environmentHash).putInt(stamp.systemPropertiesHash)
+                .putInt(keys.size());
+
+        Path temporary = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), "config", ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.write(new ByteBuffer[] { header.flip(), table.flip(), ByteBuffer.wrap(pool.toByteArray()) });
+            channel.force(true);
+        }
+        Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Identical strings (repeated values are common) are stored once in the pool.
+    private static int intern(String text, byte[] bytes, Map<String, Integer> poolOffsets, ByteArrayOutputStream pool) {
+        Integer offset = poolOffsets.get(text);
+        if (offset == null) {
+            offset = pool.size();
+            pool.writeBytes(bytes);
+            poolOffsets.put(text, offset);
+        }
+        return offset;
+    }
+}
 
 class ConfigurationManager {
 
-    private static final ConcurrentHashMap<String, String> configuration = new ConcurrentHashMap<>();
     private static final String CONFIG_FILE = "/application.properties";    // The file should be in the application's classpath.
+    private static final String CACHE_PROPERTY = "config.cache";    // -Dconfig.cache=<path> turns on the startup cache
+
+    // Readers do a single volatile read of the current snapshot. A refresh builds a new snapshot off to the side and swaps it in,
+    // so nobody ever sees a cleared or half-loaded configuration.
+    private final AtomicReference<ConfigSnapshot> snapshot = new AtomicReference<>(new ConfigSnapshot(0, Map.of()));
+
+    // Listeners indexed by the keys they subscribed to, so a reload only looks at the changed keys.
+    private final Map<String, List<ConfigChangeListener>> listenersByKey = new ConcurrentHashMap<>();
+
+    // Changes are queued under the manager's lock and delivered after it is released, so a listener may call back into the manager
+    // (even stopWatching() from the watcher thread) without deadlocking. notificationLock only keeps deliveries in publish order.
+    private final Queue<Runnable> pendingNotifications = new ConcurrentLinkedQueue<>();
+    private final Object notificationLock = new Object();
+
+    private final List<ConfigHandle<?>> handles = new ArrayList<>();    // Guarded by this
+
+    // Optional override file, layered over the classpath defaults. It is also the file hot reload watches.
+    private volatile Path externalFile;
+    private byte[] lastContentHash;
+    private ConfigFileWatcher watcher;
+    private Thread watcherThread;
 
     private ConfigurationManager() {
+        String cacheLocation = System.getProperty(CACHE_PROPERTY);
+        if (cacheLocation == null) {
+            loadConfiguration();
+            return;
+        }
+        // Startup only : refreshes always go back to the sources.
+        Path cacheFile = Path.of(cacheLocation);
+        ConfigSourceStamp stamp = sourceStamp();
+        Map<String, String> cached = BinaryConfigCache.open(cacheFile, stamp);
+        if (cached != null) {
+            publish(cached);
+            return;
+        }
         loadConfiguration();
+        try {
+            BinaryConfigCache.write(cacheFile, snapshot.get().asMap(), stamp);
+        } catch (IOException e) {
+            System.err.println("Failed to write configuration cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private ConfigSourceStamp sourceStamp() {
+        long lastModified = -1;
+        long length = -1;
+        URL resource = getClass().getResource(CONFIG_FILE);
+        if (resource != null) {
+            try {
+                URLConnection connection = resource.openConnection();
+                lastModified = connection.getLastModified();
+                length = connection.getContentLengthLong();
+                connection.getInputStream().close();
+            } catch (IOException e) {
+                // Unknown source stamp, the cache will simply not match
+            }
+        }
+        return new ConfigSourceStamp(lastModified, length, System.getenv().hashCode(), systemProperties().hashCode());
+    }
+
+    private static Map<String, String> systemProperties() {
+        Map<String, String> systemProperties = new HashMap<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            systemProperties.put(name, System.getProperty(name));
+        }
+        return systemProperties;
     }
 
     private static class ConfigurationManagerInstance {
@@ -22,43 +732,387 @@ class ConfigurationManager {
         return ConfigurationManagerInstance.INSTANCE;
     }
 
-    private void loadConfiguration() {
+    // Layers, lowest precedence first : classpath defaults, override file, environment variables, system properties.
+    private synchronized void loadConfiguration() {
+        List<Map<String, String>> fileLayers = new ArrayList<>();
         try (InputStream input = getClass().getResourceAsStream(CONFIG_FILE)) {
             if (input == null) {
                 throw new IllegalArgumentException("Configuration file not found: " + CONFIG_FILE);
             }
+            fileLayers.add(parse(input));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load configuration file", e);
+        }
+        Path file = externalFile;
+        if (file != null && Files.exists(file)) {
+            try {
+                byte[] content = Files.readAllBytes(file);
+                fileLayers.add(parse(new ByteArrayInputStream(content)));
+                lastContentHash = hash(content);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to load configuration file " + file, e);
+            }
+        }
+        publish(ConfigMerger.merge(fileLayers, systemProperties(), System.getenv()));
+    }
+
+    // Used by the watcher : the layers are only rebuilt when the override file content actually changed.
+    private synchronized void reloadIfChanged(Path file) {
+        try {
+            if (Arrays.equals(hash(Files.readAllBytes(file)), lastContentHash)) {
+                return;     // Touched but not changed, nothing to re-parse
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load configuration file " + file, e);
+        }
+        loadConfiguration();
+    }
+
+    private static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static Map<String, String> parse(InputStream input) throws IOException {
+        Properties properties = new Properties();
+        properties.load(input);
+
+        Map<String, String> values = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            values.put(key, properties.getProperty(key));
+        }
+        return values;
+    }
+
+    // Writers are serialized (reloads are rare), readers never wait for them.
+    private synchronized void publish(Map<String, String> values) {
+        ConfigSnapshot previous = snapshot.get();
+        ConfigSnapshot next = new ConfigSnapshot(previous.getVersion() + 1, values).bind(handles);
+        snapshot.set(next);
+        if (!listenersByKey.isEmpty()) {    // No subscribers (always the case at startup), no diff to compute
+            Map<String, ConfigChange> changes = diff(previous.asMap(), next.asMap());
+            pendingNotifications.add(() -> notifyListeners(changes, next));
+        }
+    }
+
+    // Called by every public entry point that can publish, once it no longer holds the manager's lock.
+    private void deliverChanges() {
+        synchronized (notificationLock) {
+            Runnable notification;
+            while ((notification = pendingNotifications.poll()) != null) {
+                notification.run();
+            }
+        }
+    }
+
+    private static Map<String, ConfigChange> diff(Map<String, String> before, Map<String, String> after) {
+        Map<String, ConfigChange> changes = new HashMap<>();
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            String oldValue = before.get(entry.getKey());
+            if (!entry.getValue().equals(oldValue)) {
+                changes.put(entry.getKey(), new ConfigChange(entry.getKey(), oldValue, entry.getValue()));
+            }
+        }
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            if (!after.containsKey(entry.getKey())) {
+                changes.put(entry.getKey(), new ConfigChange(entry.getKey(), entry.getValue(), null));
+            }
+        }
+        return changes;
+    }
+
+    private void notifyListeners(Map<String, ConfigChange> changes, ConfigSnapshot next) {
+        Map<ConfigChangeListener, List<ConfigChange>> perListener = new HashMap<>();
+        for (ConfigChange change : changes.values()) {
+            for (ConfigChangeListener listener : listenersByKey.getOrDefault(change.getKey(), List.of())) {
+                perListener.computeIfAbsent(listener, ignored -> new ArrayList<>()).add(change);
+            }
+        }
+        for (Map.Entry<ConfigChangeListener, List<ConfigChange>> entry : perListener.entrySet()) {
+            try {
+                entry.getKey().onChange(entry.getValue(), next);
+            } catch (RuntimeException e) {
+                System.err.println("Configuration listener failed: " + e);   // One broken listener must not starve the others
+            }
+        }
+    }
+
+    public void addListener(Set<String> keys, ConfigChangeListener listener) {
+        Objects.requireNonNull(listener, "Listener cannot be null");
+        for (String key : new HashSet<>(keys)) {
+            listenersByKey.computeIfAbsent(key, ignored -> new CopyOnWriteArrayList<>()).add(listener);
+        }
+    }
+
+    public void removeListener(ConfigChangeListener listener) {
+        for (List<ConfigChangeListener> listeners : listenersByKey.values()) {
+            listeners.remove(listener);
+        }
+    }
 
-            Properties properties = new Properties();
-            properties.load(input);
+    // Layers an external file over the classpath defaults. Null removes the override layer.
+    public void useOverrideFile(Path file) {
+        synchronized (this) {
+            setOverrideFile(file);
+        }
+        deliverChanges();
+    }
+
+    private synchronized void setOverrideFile(Path file) {
+        externalFile = file;
+        lastContentHash = null;
+        loadConfiguration();
+    }
 
-            configuration.clear();
-            for (String key : properties.stringPropertyNames()) {
-                configuration.put(key, properties.getProperty(key));
+    // Uses an external file as the override layer and reloads it whenever it changes on disk.
+    public void watch(Path file, Duration debounce) {
+        if (file == null || debounce == null || debounce.isNegative()) {
+            throw new IllegalArgumentException("File cannot be null and debounce cannot be negative");
+        }
+        Thread previous;
+        synchronized (this) {
+            previous = detachWatcher();
+            setOverrideFile(file);
+            try {
+                watcher = new ConfigFileWatcher(file, debounce, () -> {
+                    try {
+                        reloadIfChanged(file);
+                    } catch (RuntimeException e) {
+                        System.err.println("Configuration reload failed, keeping version " + getVersion() + ": " + e.getMessage());
+                    }
+                    deliverChanges();
+                });
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to watch configuration file " + file, e);
             }
+            watcherThread = new Thread(watcher, "config-watcher");
+            watcherThread.setDaemon(true);
+            watcherThread.start();
+        }
+        awaitWatcher(previous);
+        deliverChanges();
+    }
+
+    // The last loaded snapshot stays in place. refreshConfig() keeps reading the override file.
+    public void stopWatching() {
+        awaitWatcher(detachWatcher());
+    }
+
+    // Stops the watcher under the lock but returns its thread instead of joining it : the thread may be waiting for this lock in reloadIfChanged().
+    private synchronized Thread detachWatcher() {
+        if (watcher == null) {
+            return null;
+        }
+        Thread thread = watcherThread;
+        try {
+            watcher.close();
         } catch (IOException e) {
-            throw new RuntimeException("Failed to load configuration file", e);
+            System.err.println("Failed to close configuration watcher: " + e.getMessage());
+        }
+        thread.interrupt();
+        watcher = null;
+        watcherThread = null;
+        return thread;
+    }
+
+    // Joins outside the lock. A listener running on the watcher thread may stop the watcher, so it must not wait for itself.
+    private static void awaitWatcher(Thread thread) {
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     public String getConfigValue(String key) {
-        return configuration.getOrDefault(key, "Default Value"); // Return default value if key is not found
+        return snapshot.get().get(key, "Default Value"); // Return default value if key is not found
+    }
+
+    // Use the snapshot when several keys must come from the same version of the configuration.
+    public ConfigSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public long getVersion() {
+        return snapshot.get().getVersion();
+    }
+
+    // Typed accessors. Each value is parsed once per snapshot and then served from the snapshot's cache.
+    public int getInt(String key, int defaultValue) {
+        return snapshot.get().getInt(key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        return snapshot.get().getLong(key, defaultValue);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return snapshot.get().getBoolean(key, defaultValue);
+    }
+
+    public Duration getDuration(String key, Duration defaultValue) {
+        return snapshot.get().getDuration(key, defaultValue);
+    }
+
+    public List<String> getList(String key, List<String> defaultValue) {
+        return snapshot.get().getList(key, defaultValue);
+    }
+
+    // Handles for hot paths. Create them once, at startup, and keep them in a field.
+    public ConfigHandle<Integer> intHandle(String key, int defaultValue) {
+        return register(key, ConfigType.INT, defaultValue);
+    }
+
+    public ConfigHandle<Long> longHandle(String key, long defaultValue) {
+        return register(key, ConfigType.LONG, defaultValue);
+    }
+
+    public ConfigHandle<Boolean> booleanHandle(String key, boolean defaultValue) {
+        return register(key, ConfigType.BOOLEAN, defaultValue);
+    }
+
+    public ConfigHandle<Duration> durationHandle(String key, Duration defaultValue) {
+        return register(key, ConfigType.DURATION, defaultValue);
+    }
+
+    public ConfigHandle<List<String>> listHandle(String key, List<String> defaultValue) {
+        return register(key, ConfigType.LIST, defaultValue);
+    }
+
+    private synchronized <T> ConfigHandle<T> register(String key, ConfigType type, T defaultValue) {
+        ConfigHandle<T> handle = new ConfigHandle<>(this, handles.size(), key, type, defaultValue);
+        handles.add(handle);
+        snapshot.set(snapshot.get().bind(handles));     // Same version, now with the new handle resolved
+        return handle;
     }
 
     public void refreshConfig() {
         loadConfiguration();
+        deliverChanges();
+    }
+}
+
+// Cold-start cost of building the configuration from a large properties file, with and without the binary cache.
+// Run with : java Solution bench
+class ConfigStartupBenchmark {
+
+    private static final int KEYS = 200_000;
+    private static final int ROUNDS = 5;
+    private static final int READS = 2_000_000;
+
+    static void run() throws IOException {
+        Path directory = Files.createTempDirectory("config-bench");
+        Path source = directory.resolve("application.properties");
+        Path cache = directory.resolve("application.cache");
+        StringBuilder properties = new StringBuilder();
+        for (int i = 0; i < KEYS; i++) {
+            properties.append("service.").append(i).append(".endpoint=http://host-").append(i % 100).append(".internal:8080/api\n");
+        }
+        Files.writeString(source, properties);
+        ConfigSourceStamp stamp = new ConfigSourceStamp(Files.getLastModifiedTime(source).toMillis(), Files.size(source), 0, 0);
+
+        String[] keys = new String[1_024];
+        Random random = new Random(5);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "service." + random.nextInt(KEYS) + ".endpoint";
+        }
+        long parseNanos = Long.MAX_VALUE;
+        long cacheNanos = Long.MAX_VALUE;
+        long sourceReadNanos = Long.MAX_VALUE;
+        long cacheReadNanos = Long.MAX_VALUE;
+        long found = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            Properties parsed = new Properties();
+            try (InputStream input = Files.newInputStream(source)) {
+                parsed.load(input);
+            }
+            Map<String, String> layer = new HashMap<>();
+            for (String key : parsed.stringPropertyNames()) {
+                layer.put(key, parsed.getProperty(key));
+            }
+            ConfigSnapshot fromSource = new ConfigSnapshot(1, ConfigMerger.merge(List.of(layer), Map.of(), Map.of()));
+            fromSource.get("service.42.endpoint", null);
+            parseNanos = Math.min(parseNanos, System.nanoTime() - start);
+
+            if (round == 0) {
+                BinaryConfigCache.write(cache, fromSource.asMap(), stamp);
+            }
+            start = System.nanoTime();
+            ConfigSnapshot fromCache = new ConfigSnapshot(1, BinaryConfigCache.open(cache, stamp));
+            fromCache.get("service.42.endpoint", null);
+            cacheNanos = Math.min(cacheNanos, System.nanoTime() - start);
+
+            // What the application does afterwards : lots of reads, which must cost the same whichever way it started
+            start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                found += fromSource.get(keys[i & (keys.length - 1)], "").length();
+            }
+            sourceReadNanos = Math.min(sourceReadNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                found += fromCache.get(keys[i & (keys.length - 1)], "").length();
+            }
+            cacheReadNanos = Math.min(cacheReadNanos, System.nanoTime() - start);
+        }
+        System.out.printf("%d keys : parse %.1f ms, cache %.1f ms (cache file %d KB) | read %.1f ns from the parsed snapshot, %.1f ns from the cached one  (%d)%n",
+                KEYS, parseNanos / 1e6, cacheNanos / 1e6, Files.size(cache) / 1024,
+                (double) sourceReadNanos / READS, (double) cacheReadNanos / READS, found);
+        Files.delete(source);
+        Files.delete(cache);
+        Files.delete(directory);
     }
 }
 
 public class Solution {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            ConfigStartupBenchmark.run();
+            return;
+        }
+
         ConfigurationManager configManager = ConfigurationManager.getInstance();
 
         // Fetch configuration values
         System.out.println("App Name: " + configManager.getConfigValue("app.name"));
         System.out.println("App Version: " + configManager.getConfigValue("app.version"));
 
+        // Consistent multi-key view : both values come from the same load
+        ConfigSnapshot config = configManager.getSnapshot();
+        System.out.println("Config v" + config.getVersion() + ": " + config.get("app.name", "?") + " " + config.get("app.version", "?"));
+
         // Simulate configuration refresh
         configManager.refreshConfig();
+        System.out.println("Config version after refresh: " + configManager.getVersion());
+
+        // Typed access : parsed once per snapshot. Handles skip the map lookup entirely.
+        ConfigHandle<Duration> timeout = configManager.durationHandle("app.timeout", Duration.ofSeconds(30));
+        ConfigHandle<List<String>> regions = configManager.listHandle("app.regions", List.of("local"));
+        System.out.println("Timeout: " + timeout.get() + ", Regions: " + regions.get());
+
+        // Hot reload : only the listener subscribed to app.theme hears about the theme change
+        Path externalConfig = Files.createTempFile("application", ".properties");
+        Files.writeString(externalConfig, "app.theme=dark\napp.title=${app.name} v${app.version} (${app.edition:community})\n");
+        configManager.watch(externalConfig, Duration.ofMillis(200));
+        System.out.println("App Title: " + configManager.getConfigValue("app.title"));     // Placeholders resolved at merge time
+        configManager.addListener(Set.of("app.theme"), (changes, snapshot) -> System.out.println("Theme listener (v" + snapshot.getVersion() + "): " + changes));
+        configManager.addListener(Set.of("app.version"), (changes, snapshot) -> System.out.println("Version listener (v" + snapshot.getVersion() + "): " + changes));
+
+        for (int i = 0; i < 5; i++) {   // A burst of writes is reloaded once
+            Files.writeString(externalConfig, "app.theme=light\n");
+        }
+        Thread.sleep(2_000);
+        Files.writeString(externalConfig, "app.theme=light\napp.timeout=250ms\napp.regions=eu, us\n");
+        Thread.sleep(2_000);
+        System.out.println("Timeout: " + timeout.get() + ", Regions: " + regions.get() + " (handles re-bound on reload)");
+        configManager.stopWatching();
+        Files.delete(externalConfig);
     }
 }
@@ -1,17 +1,103 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 class Meal {
 
-    private String mainCourse;
-    private String sideDish;
-    private String drink;
-    private String dessert;
+    private final String mainCourse;
+    private final String sideDish;
+    private final String drink;
+    private final String dessert;
+    private final int hash;     // Computed once, every cache lookup needs it
+
+    // Identical meals share one instance, so a few hundred popular combos cost a few hundred objects in total.
+    private static final MealCache CACHE = new MealCache(1_024);
 
     // Private constructor to enforce usage of Builder
-    private Meal(Builder builder) {
+    private Meal(Builder builder, int hash) {
         this.mainCourse = builder.mainCourse;
         this.sideDish = builder.sideDish;
         this.drink = builder.drink;
         this.dessert = builder.dessert;
+        this.hash = hash;
+    }
+
+    // Same value as Objects.hash(mainCourse, sideDish, drink, dessert), without the varargs array.
+    static int hashOf(String mainCourse, String sideDish, String drink, String dessert) {
+        int result = 31 + Objects.hashCode(mainCourse);
+        result = 31 * result + Objects.hashCode(sideDish);
+        result = 31 * result + Objects.hashCode(drink);
+        return 31 * result + Objects.hashCode(dessert);
+    }
+
+    boolean matches(int hash, String mainCourse, String sideDish, String drink, String dessert) {
+        return this.hash == hash && Objects.equals(this.mainCourse, mainCourse) && Objects.equals(this.sideDish, sideDish)
+                && Objects.equals(this.drink, drink) && Objects.equals(this.dessert, dessert);
+    }
+
+    public String getMainCourse() {
+        return mainCourse;
+    }
+
+    public String getSideDish() {
+        return sideDish;
+    }
+
+    public String getDrink() {
+        return drink;
+    }
+
+    public String getDessert() {
+        return dessert;
+    }
+
+    public static MealCache cache() {
+        return CACHE;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Meal)) {
+            return false;
+        }
+        Meal meal = (Meal) other;
+        return matches(meal.hash, meal.mainCourse, meal.sideDish, meal.drink, meal.dessert);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
     }
 
     @Override
@@ -22,11 +108,26 @@ class Meal {
     // Static inner Builder class
     public static class Builder {
 
+        private static final ThreadLocal<Builder> THREAD_BUILDER = ThreadLocal.withInitial(Builder::new);
+
         private String mainCourse;
         private String sideDish;
         private String drink;
         private String dessert;
 
+        // Reusable builder for hot paths : one per thread, already reset. Don't hand it to another thread.
+        public static Builder forThread() {
+            return THREAD_BUILDER.get().reset();
+        }
+
+        public Builder reset() {
+            this.mainCourse = null;
+            this.sideDish = null;
+            this.drink = null;
+            this.dessert = null;
+            return this;
+        }
+
         public Builder setMainCourse(String mainCourse) {
             this.mainCourse = mainCourse;
             return this;
@@ -47,15 +148,608 @@ class Meal {
             return this;
         }
 
+        // Returns the shared instance when an identical meal was built before, and only allocates a Meal when there is none.
+        // Meal is immutable, so sharing is safe.
         public Meal build() {
-            return new Meal(this);
+            int hash = Meal.hashOf(mainCourse, sideDish, drink, dessert);
+            Meal cached = CACHE.find(mainCourse, sideDish, drink, dessert, hash);
+            return cached != null ? cached : CACHE.add(new Meal(this, hash));
+        }
+    }
+}
+
+// Bounded concurrent canonicalization cache for Meals. It is looked up by the builder's fields, so a hit allocates nothing.
+// Each bucket is a small immutable array swapped by compare-and-set, so lookups never lock. When the cache is full, a cursor
+// walks the buckets round-robin and evicts the oldest meal of the next non-empty one : arbitrary rather than least recently
+// used, but cheap, and popular combos are rebuilt and re-cached almost immediately if evicted.
+class MealCache {
+
+    private static final int APPROXIMATE_MEAL_BYTES = 32;   // Object header + 4 compressed references + the cached hash
+    private static final Meal[] EMPTY = new Meal[0];
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Meal[]> buckets;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger evictionCursor = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    MealCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        int bucketCount = Integer.highestOneBit(Math.max(1, capacity - 1)) << 2;    // At least twice the capacity, so buckets stay short
+        this.mask = bucketCount - 1;
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.set(i, EMPTY);
+        }
+    }
+
+    // The cached meal with these fields, or null.
+    Meal find(String mainCourse, String sideDish, String drink, String dessert, int hash) {
+        for (Meal meal : buckets.get(hash & mask)) {
+            if (meal.matches(hash, mainCourse, sideDish, drink, dessert)) {
+                hits.increment();
+                return meal;
+            }
+        }
+        return null;
+    }
+
+    // Caches a meal find() missed. Returns the cached one instead when another thread added an equal meal first.
+    Meal add(Meal candidate) {
+        misses.increment();
+        int index = candidate.hashCode() & mask;
+        while (true) {
+            Meal[] bucket = buckets.get(index);
+            for (Meal meal : bucket) {
+                if (meal.equals(candidate)) {
+                    return meal;
+                }
+            }
+            Meal[] grown = Arrays.copyOf(bucket, bucket.length + 1);
+            grown[bucket.length] = candidate;
+            if (buckets.compareAndSet(index, bucket, grown)) {
+                break;
+            }
+        }
+        if (size.incrementAndGet() > capacity) {
+            evictOne();
+        }
+        return candidate;
+    }
+
+    private void evictOne() {
+        for (int scanned = 0; scanned <= mask; scanned++) {
+            int index = evictionCursor.getAndIncrement() & mask;
+            Meal[] bucket = buckets.get(index);
+            if (bucket.length > 0 && buckets.compareAndSet(index, bucket, Arrays.copyOfRange(bucket, 1, bucket.length))) {
+                size.decrementAndGet();
+                evictions.increment();
+                return;
+            }
+        }
+    }
+
+    public double hitRate() {
+        long total = hits.sum() + misses.sum();
+        return total == 0 ? 0 : hits.sum() / (double) total;
+    }
+
+    // Every hit is one Meal that was never allocated.
+    public long approximateBytesSaved() {
+        return hits.sum() * APPROXIMATE_MEAL_BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MealCache[size=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.1f%%, saved~%d KB]",
+                size.get(), hits.sum(), misses.sum(), evictions.sum(), hitRate() * 100, approximateBytesSaved() / 1024);
+    }
+}
+
+// Input formats the bulk importer understands.
+//   CSV        : mainCourse,sideDish,drink,dessert   (empty field = not ordered, a first line starting with "mainCourse" is skipped)
+//   JSON lines : {"mainCourse":"Briyani","drink":"Buttermilk"}   (flat objects with string values, missing key = not ordered)
+enum OrderFormat {
+    CSV, JSON_LINES
+}
+
+// Streams order batches of any size into Meals. Lines are read in chunks, each chunk is split across a fork-join pool and parsed in
+// parallel, and the Meals are handed to the consumer in bounded batches, in input order. Only one chunk is in memory at a time.
+class BulkOrderImporter {
+
+    private static final int PARALLEL_THRESHOLD = 1_024;    // Lines below this are parsed by a single task
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int batchSize;
+
+    BulkOrderImporter(ForkJoinPool pool, int chunkSize, int batchSize) {
+        if (chunkSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Chunk size and batch size must be positive");
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.batchSize = batchSize;
+    }
+
+    public long importFile(Path file, OrderFormat format, Consumer<List<Meal>> batchConsumer) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            return importStream(input, format, batchConsumer);
+        }
+    }
+
+    // Returns the number of Meals emitted. A malformed line fails the import with its line number.
+    public long importStream(InputStream input, OrderFormat format, Consumer<List<Meal>> batchConsumer) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+        List<String> chunk = new ArrayList<>(chunkSize);
+        long firstLine = 1;
+        long lineNumber = 0;
+        long emitted = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber == 1 && format == OrderFormat.CSV && line.startsWith("mainCourse")) {
+                firstLine++;
+                continue;   // Header row
+            }
+            chunk.add(line);
+            if (chunk.size() == chunkSize) {
+                emitted += parseAndEmit(chunk, firstLine, format, batchConsumer);
+                firstLine = lineNumber + 1;
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            emitted += parseAndEmit(chunk, firstLine, format, batchConsumer);
+        }
+        return emitted;
+    }
+
+    private long parseAndEmit(List<String> lines, long firstLine, OrderFormat format, Consumer<List<Meal>> batchConsumer) {
+        Meal[] meals = pool.invoke(new ParseTask(lines, 0, lines.size(), firstLine, format, new Meal[lines.size()]));
+        long emitted = 0;
+        List<Meal> batch = new ArrayList<>(batchSize);
+        for (Meal meal : meals) {
+            if (meal == null) {
+                continue;   // Blank line
+            }
+            batch.add(meal);
+            if (batch.size() == batchSize) {
+                batchConsumer.accept(batch);
+                emitted += batch.size();
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchConsumer.accept(batch);
+            emitted += batch.size();
+        }
+        return emitted;
+    }
+
+    // Splits a chunk in halves until the pieces are small, then parses each piece with the thread's reusable builder.
+    private static class ParseTask extends RecursiveTask<Meal[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> lines;
+        private final int from;
+        private final int to;
+        private final long firstLine;
+        private final OrderFormat format;
+        private final Meal[] result;
+
+        ParseTask(List<String> lines, int from, int to, long firstLine, OrderFormat format, Meal[] result) {
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+            this.firstLine = firstLine;
+            this.format = format;
+            this.result = result;
+        }
+
+        @Override
+        protected Meal[] compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    result[i] = parse(lines.get(i), firstLine + i);
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(new ParseTask(lines, from, middle, firstLine, format, result),
+                    new ParseTask(lines, middle, to, firstLine, format, result));
+            return result;
+        }
+
+        private Meal parse(String line, long lineNumber) {
+            if (line.isBlank()) {
+                return null;
+            }
+            try {
+                return format == OrderFormat.CSV ? parseCsv(line) : parseJson(line);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Malformed order on line " + lineNumber + ": " + line, e);
+            }
+        }
+
+        private static Meal parseCsv(String line) {
+            String[] fields = line.split(",", -1);
+            if (fields.length != 4) {
+                throw new IllegalArgumentException("Expected 4 fields but found " + fields.length);
+            }
+            return Meal.Builder.forThread()
+                    .setMainCourse(emptyToNull(fields[0]))
+                    .setSideDish(emptyToNull(fields[1]))
+                    .setDrink(emptyToNull(fields[2]))
+                    .setDessert(emptyToNull(fields[3]))
+                    .build();
+        }
+
+        // Minimal reader for flat JSON objects with string values, which is all an order line contains.
+        private static Meal parseJson(String line) {
+            Meal.Builder builder = Meal.Builder.forThread();
+            int position = expect(line, skipSpaces(line, 0), '{');
+            position = skipSpaces(line, position);
+            if (line.charAt(position) == '}') {
+                return builder.build();
+            }
+            while (true) {
+                StringBuilder key = new StringBuilder();
+                position = readString(line, skipSpaces(line, position), key);
+                position = expect(line, skipSpaces(line, position), ':');
+                position = skipSpaces(line, position);
+                String value = null;
+                if (line.startsWith("null", position)) {
+                    position += 4;
+                } else {
+                    StringBuilder text = new StringBuilder();
+                    position = readString(line, position, text);
+                    value = text.toString();
+                }
+                switch (key.toString()) {
+                    case "mainCourse":
+                        builder.setMainCourse(value);
+                        break;
+                    case "sideDish":
+                        builder.setSideDish(value);
+                        break;
+                    case "drink":
+                        builder.setDrink(value);
+                        break;
+                    case "dessert":
+                        builder.setDessert(value);
+                        break;
+                    default:
+                        break;  // Unknown fields are ignored
+                }
+                position = skipSpaces(line, position);
+                if (line.charAt(position) == '}') {
+                    return builder.build();
+                }
+                position = expect(line, position, ',');
+            }
+        }
+
+        private static int readString(String line, int position, StringBuilder out) {
+            position = expect(line, position, '"');
+            while (line.charAt(position) != '"') {
+                char c = line.charAt(position++);
+                if (c == '\\') {
+                    char escaped = line.charAt(position++);
+                    switch (escaped) {
+                        case 'n':
+                            out.append('\n');
+                            break;
+                        case 't':
+                            out.append('\t');
+                            break;
+                        case 'u':
+                            out.append((char) Integer.parseInt(line.substring(position, position + 4), 16));
+                            position += 4;
+                            break;
+                        default:
+                            out.append(escaped);     // \" \\ \/
+                    }
+                } else {
+                    out.append(c);
+                }
+            }
+            return position + 1;
+        }
+
+        private static int expect(String line, int position, char expected) {
+            if (position >= line.length() || line.charAt(position) != expected) {
+                throw new IllegalArgumentException("Expected '" + expected + "' at column " + (position + 1));
+            }
+            return position + 1;
+        }
+
+        private static int skipSpaces(String line, int position) {
+            while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+                position++;
+            }
+            return position;
+        }
+
+        private static String emptyToNull(String field) {
+            String trimmed = field.trim();
+            return trimmed.isEmpty() ? null : trimmed;
+        }
+    }
+}
+
+enum ComponentType {
+    MAIN_COURSE, SIDE_DISH, DRINK, DESSERT
+}
+
+// One dish the kitchen prepares, e.g. MAIN_COURSE "Briyani". Identical components of different orders are batched together.
+final class KitchenComponent {
+
+    private final ComponentType type;
+    private final String name;
+
+    KitchenComponent(ComponentType type, String name) {
+        this.type = type;
+        this.name = name;
+    }
+
+    public ComponentType getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof KitchenComponent)) {
+            return false;
+        }
+        KitchenComponent component = (KitchenComponent) other;
+        return type == component.type && name.equals(component.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return type.hashCode() * 31 + name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + name;
+    }
+}
+
+// What actually cooks a batch. Called on a kitchen worker thread with the total quantity of the batch.
+interface KitchenStation {
+
+    void prepare(KitchenComponent component, int quantity);
+}
+
+// Groups pending work by component and prepares each group as one batch. A batch is dispatched to the worker pool when it reaches
+// the size cap or when the batching window since its first order runs out, whichever comes first.
+class KitchenScheduler {
+
+    // One order waiting for its components. The future completes when the last component is prepared.
+    private static final class OrderTicket {
+
+        final Meal meal;
+        final long submittedNanos = System.nanoTime();
+        final AtomicInteger remaining;
+        final CompletableFuture<Meal> done = new CompletableFuture<>();
+
+        OrderTicket(Meal meal, int components) {
+            this.meal = meal;
+            this.remaining = new AtomicInteger(components);
+        }
+
+        void componentPrepared() {
+            if (remaining.decrementAndGet() == 0) {
+                done.complete(meal);
+            }
+        }
+    }
+
+    private static final class PendingBatch {
+
+        final KitchenComponent component;
+        final List<OrderTicket> tickets = new ArrayList<>();   // Only touched inside the map's compute for this component
+
+        PendingBatch(KitchenComponent component) {
+            this.component = component;
+        }
+    }
+
+    private static final class ComponentStats {
+
+        final LongAdder prepared = new LongAdder();
+        final LongAdder batches = new LongAdder();
+        final LongAdder totalLatencyNanos = new LongAdder();
+        final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    private final KitchenStation station;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "kitchen-batch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentHashMap<KitchenComponent, PendingBatch> openBatches = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<KitchenComponent, ComponentStats> stats = new ConcurrentHashMap<>();
+    private final AtomicInteger queuedComponents = new AtomicInteger();     // Waiting in an open batch or for a free worker
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();    // Read : a submit in progress. Write : shutdown starting
+    private boolean shutDown;   // Guarded by shutdownLock
+
+    KitchenScheduler(KitchenStation station, long window, TimeUnit unit, int maxBatchSize, int workerCount) {
+        if (maxBatchSize < 1 || workerCount < 1 || window < 0) {
+            throw new IllegalArgumentException("Batch size and worker count must be positive and the window cannot be negative");
+        }
+        this.station = station;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.workers = Executors.newFixedThreadPool(workerCount);
+    }
+
+    // Throws IllegalStateException once shutdown() has been called.
+    public CompletableFuture<Meal> submit(Meal meal) {
+        shutdownLock.readLock().lock();
+        try {
+            if (shutDown) {
+                throw new IllegalStateException("Kitchen scheduler is shut down");
+            }
+            return enqueue(meal);
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    private CompletableFuture<Meal> enqueue(Meal meal) {
+        List<KitchenComponent> components = componentsOf(meal);
+        OrderTicket ticket = new OrderTicket(meal, components.size());
+        if (components.isEmpty()) {
+            ticket.done.complete(meal);
+        }
+        for (KitchenComponent component : components) {
+            queuedComponents.incrementAndGet();
+            PendingBatch[] full = new PendingBatch[1];
+            openBatches.compute(component, (key, batch) -> {
+                if (batch == null) {
+                    PendingBatch opened = new PendingBatch(key);
+                    timer.schedule(() -> closeOnTimeout(opened), windowNanos, TimeUnit.NANOSECONDS);
+                    batch = opened;
+                }
+                batch.tickets.add(ticket);
+                if (batch.tickets.size() >= maxBatchSize) {
+                    full[0] = batch;
+                    return null;    // Closed : the next order for this component opens a new batch
+                }
+                return batch;
+            });
+            if (full[0] != null) {
+                dispatch(full[0]);
+            }
+        }
+        return ticket.done;
+    }
+
+    private static List<KitchenComponent> componentsOf(Meal meal) {
+        List<KitchenComponent> components = new ArrayList<>(4);
+        if (meal.getMainCourse() != null) {
+            components.add(new KitchenComponent(ComponentType.MAIN_COURSE, meal.getMainCourse()));
+        }
+        if (meal.getSideDish() != null) {
+            components.add(new KitchenComponent(ComponentType.SIDE_DISH, meal.getSideDish()));
+        }
+        if (meal.getDrink() != null) {
+            components.add(new KitchenComponent(ComponentType.DRINK, meal.getDrink()));
+        }
+        if (meal.getDessert() != null) {
+            components.add(new KitchenComponent(ComponentType.DESSERT, meal.getDessert()));
+        }
+        return components;
+    }
+
+    private void closeOnTimeout(PendingBatch batch) {
+        if (openBatches.remove(batch.component, batch)) {   // Still open, the size cap didn't close it first
+            dispatch(batch);
+        }
+    }
+
+    // Every ticket of the batch completes, one way or another : an order must never wait forever.
+    private void dispatch(PendingBatch batch) {
+        try {
+            workers.execute(() -> prepare(batch));
+        } catch (RejectedExecutionException e) {   // Only if the workers stopped taking batches, which shutdown() rules out
+            queuedComponents.addAndGet(-batch.tickets.size());
+            fail(batch, e);
+        }
+    }
+
+    private void prepare(PendingBatch batch) {
+        int quantity = batch.tickets.size();
+        queuedComponents.addAndGet(-quantity);
+        try {
+            station.prepare(batch.component, quantity);
+        } catch (RuntimeException | Error e) {
+            fail(batch, e);
+            if (e instanceof Error error) {
+                throw error;
+            }
+            return;
+        }
+        long now = System.nanoTime();
+        ComponentStats componentStats = stats.computeIfAbsent(batch.component, ignored -> new ComponentStats());
+        componentStats.batches.increment();
+        componentStats.prepared.add(quantity);
+        for (OrderTicket ticket : batch.tickets) {
+            long latency = now - ticket.submittedNanos;
+            componentStats.totalLatencyNanos.add(latency);
+            componentStats.maxLatencyNanos.accumulate(latency);
+            ticket.componentPrepared();
+        }
+    }
+
+    // The whole batch failed, so every order waiting on it fails.
+    private static void fail(PendingBatch batch, Throwable cause) {
+        for (OrderTicket ticket : batch.tickets) {
+            ticket.done.completeExceptionally(cause);
         }
     }
+
+    public int queueDepth() {
+        return queuedComponents.get();
+    }
+
+    // Per component : batches, units prepared, average and max latency from order submission to the component being ready.
+    public String metrics() {
+        StringBuilder report = new StringBuilder("Queue depth: ").append(queueDepth()).append(System.lineSeparator());
+        Map<String, ComponentStats> sorted = new TreeMap<>();
+        stats.forEach((component, componentStats) -> sorted.put(component.toString(), componentStats));
+        sorted.forEach((component, componentStats) -> {
+            long prepared = componentStats.prepared.sum();
+            report.append(String.format("  %-28s batches=%d units=%d avgLatency=%.1fms maxLatency=%.1fms%n", component,
+                    componentStats.batches.sum(), prepared,
+                    prepared == 0 ? 0 : componentStats.totalLatencyNanos.sum() / 1e6 / prepared, componentStats.maxLatencyNanos.get() / 1e6));
+        });
+        return report.toString();
+    }
+
+    // Dispatches every open batch without waiting for its window, then waits for the kitchen to finish.
+    // Submits that already started finish first and end up in the flushed batches; later ones are rejected.
+    public void shutdown() throws InterruptedException {
+        shutdownLock.writeLock().lock();
+        try {
+            shutDown = true;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+        timer.shutdownNow();
+        timer.awaitTermination(1, TimeUnit.MINUTES);    // A window closing right now dispatches before the workers stop
+        for (KitchenComponent component : List.copyOf(openBatches.keySet())) {
+            PendingBatch batch = openBatches.remove(component);
+            if (batch != null) {
+                dispatch(batch);
+            }
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+    }
 }
 
 public class Solution {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
 
         Meal meal = new Meal.Builder() // new OuterClass.InnerClass()
                 .setMainCourse("Briyani")
@@ -64,5 +758,56 @@ public class Solution {
                 .build();
 
         System.out.println(meal);
+
+        // Hot path : the per-thread builder is reused and identical orders share one Meal instance.
+        String[] mains = { "Briyani", "Parotta", "Dosa", "Meals" };
+        String[] drinks = { "Elaneer Payasam", "Filter Coffee", "Buttermilk" };
+        for (int order = 0; order < 100_000; order++) {
+            Meal.Builder.forThread()
+                    .setMainCourse(mains[order % mains.length])
+                    .setDrink(drinks[order % drinks.length])
+                    .setDessert(order % 2 == 0 ? "Ice cream" : null)
+                    .build();
+        }
+        Meal same = new Meal.Builder().setMainCourse("Briyani").setDrink("Elaneer Payasam").setDessert("Ice cream").build();
+        System.out.println("Shared instance: " + (same == meal));
+        System.out.println(Meal.cache());
+
+        // Bulk import : a million CSV orders streamed from a file, parsed in parallel, delivered in batches of 10,000.
+        Path orders = Files.createTempFile("orders", ".csv");
+        try (var writer = Files.newBufferedWriter(orders)) {
+            writer.write("mainCourse,sideDish,drink,dessert\n");
+            for (int order = 0; order < 1_000_000; order++) {
+                writer.write(mains[order % mains.length] + ",Salad," + drinks[order % drinks.length] + "," + (order % 2 == 0 ? "Ice cream" : "") + "\n");
+            }
+        }
+        BulkOrderImporter importer = new BulkOrderImporter(ForkJoinPool.commonPool(), 50_000, 10_000);
+        LongAdder batches = new LongAdder();
+        long start = System.nanoTime();
+        long imported = importer.importFile(orders, OrderFormat.CSV, batch -> batches.increment());
+        System.out.printf("Imported %d meals in %d batches in %d ms%n", imported, batches.sum(), (System.nanoTime() - start) / 1_000_000);
+        Files.delete(orders);
+
+        long fromJson = importer.importStream(new ByteArrayInputStream(
+                "{\"mainCourse\": \"Dosa\", \"drink\": \"Filter Coffee\"}\n{\"mainCourse\":\"Briyani\",\"dessert\":null}\n".getBytes(StandardCharsets.UTF_8)),
+                OrderFormat.JSON_LINES, batch -> batch.forEach(System.out::println));
+        System.out.println("Imported " + fromJson + " meals from JSON lines");
+
+        // Kitchen : 40 orders with the same main course are cooked as one batch of 40 instead of 40 separate ones.
+        KitchenScheduler kitchen = new KitchenScheduler((component, quantity) -> {
+            try {
+                Thread.sleep(20);   // Cooking a batch takes about the same time whatever its size
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 50, TimeUnit.MILLISECONDS, 64, 4);
+        List<CompletableFuture<Meal>> ready = new ArrayList<>();
+        for (int order = 0; order < 40; order++) {
+            ready.add(kitchen.submit(Meal.Builder.forThread().setMainCourse("Briyani").setDrink(drinks[order % drinks.length]).build()));
+        }
+        System.out.println("Queue depth after submitting: " + kitchen.queueDepth());
+        CompletableFuture.allOf(ready.toArray(new CompletableFuture<?>[0])).join();
+        kitchen.shutdown();
+        System.out.print(kitchen.metrics());
     }
 }
@@ -1,4 +1,1955 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Attribute blocks are immutable. A clone points at the same blocks as its prototype, and a change replaces the block on the
+// changed object only (copy-on-write). That is what makes a shallow clone safe here.
+
+final class Dimensions {
+
+    final float width;
+    final float height;
+
+    Dimensions(float width, float height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Width and height must be positive");
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
+
+// Pixel data is the expensive part of a game object, so it is shared by every object that uses the same sprite.
+final class Sprite {
+
+    final String name;
+    private final int[] pixels;
+
+    Sprite(String name, int[] pixels) {
+        this.name = name;
+        this.pixels = pixels.clone();
+    }
+
+    int pixelCount() {
+        return pixels.length;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
+
+final class Appearance {
+
+    final int color;    // 0xRRGGBB
+    final Sprite sprite;
+
+    Appearance(int color, Sprite sprite) {
+        this.color = color;
+        this.sprite = sprite;
+    }
+
+    Appearance withColor(int newColor) {
+        return newColor == color ? this : new Appearance(newColor, sprite);
+    }
+
+    Appearance withSprite(Sprite newSprite) {
+        return newSprite == sprite ? this : new Appearance(color, newSprite);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%06X %s", color, sprite);
+    }
+}
+
+// E.g. "patrol" with {speed=2.0, range=120.0} for an enemy, or "bounce" with {force=8.0} for a platform.
+final class Behavior {
+
+    final String name;
+    final Map<String, Double> parameters;
+
+    Behavior(String name, Map<String, Double> parameters) {
+        this.name = name;
+        this.parameters = Map.copyOf(parameters);
+    }
+
+    Behavior with(String parameter, double value) {
+        Map<String, Double> changed = new HashMap<>(parameters);
+        changed.put(parameter, value);
+        return new Behavior(name, changed);
+    }
+
+    @Override
+    public String toString() {
+        return name + parameters;
+    }
+}
+
+// Told when a placed object changes, so the level's spatial index and unsaved-changes tracking can follow.
+interface ObjectChangeListener {
+
+    void geometryChanged(GameObject object, float oldX, float oldY, float oldWidth, float oldHeight);
+
+    void attributesChanged(GameObject object);
+}
+
+// Concrete prototype. New kinds of objects (checkpoints, collectibles...) are new prototypes in the registry, not new classes.
+// Position is the only state that differs for almost every placed object, so it is kept inline instead of in a block.
+class GameObject implements Cloneable {
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    private long id;
+    private String prototypeName;
+    private final String kind;
+    private float x;
+    private float y;
+    private Dimensions size;
+    private Appearance appearance;
+    private Behavior behavior;
+    private ObjectChangeListener changeListener;     // Set while the object is placed in a level
+    private boolean unsaved;                        // Changed since the level was last saved
+
+    GameObject(String kind, float x, float y, Dimensions size, Appearance appearance, Behavior behavior) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.kind = kind;
+        this.x = x;
+        this.y = y;
+        this.size = size;
+        this.appearance = appearance;
+        this.behavior = behavior;
+    }
+
+    // Dense storage draws its ids from the same sequence, so ids stay unique across both storage modes.
+    static long nextId() {
+        return NEXT_ID.getAndIncrement();
+    }
+
+    // Shallow clone : the copy shares every attribute block with the original and only gets its own id.
+    @Override
+    public GameObject clone() {
+        return cloneWithId(NEXT_ID.getAndIncrement());
+    }
+
+    // Same shallow copy, but with an id that was already handed out, e.g. the view of a dense object. Draws nothing from the sequence.
+    GameObject cloneWithId(long existingId) {
+        try {
+            GameObject copy = (GameObject) super.clone();
+            copy.id = existingId;
+            copy.changeListener = null;     // The copy is not placed anywhere yet
+            copy.unsaved = false;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError("GameObject is Cloneable", e);
+        }
+    }
+
+    public void moveTo(float newX, float newY) {
+        float oldX = x;
+        float oldY = y;
+        this.x = newX;
+        this.y = newY;
+        if (changeListener != null) {
+            changeListener.geometryChanged(this, oldX, oldY, size.width, size.height);
+        }
+    }
+
+    public void resize(float width, float height) {
+        if (width != size.width || height != size.height) {
+            Dimensions old = size;
+            this.size = new Dimensions(width, height);
+            if (changeListener != null) {
+                changeListener.geometryChanged(this, x, y, old.width, old.height);
+            }
+        }
+    }
+
+    void setChangeListener(ObjectChangeListener listener) {
+        this.changeListener = listener;
+    }
+
+    boolean isUnsaved() {
+        return unsaved;
+    }
+
+    void setUnsaved(boolean unsaved) {
+        this.unsaved = unsaved;
+    }
+
+    // Only for objects read back from a level file, before they are placed.
+    void restoreId(long savedId) {
+        this.id = savedId;
+        NEXT_ID.accumulateAndGet(savedId + 1, Math::max);
+    }
+
+    // Distance from a point to this object's rectangle, 0 when the point is inside.
+    float distanceTo(float pointX, float pointY) {
+        float dx = Math.max(Math.max(x - pointX, 0), pointX - (x + size.width));
+        float dy = Math.max(Math.max(y - pointY, 0), pointY - (y + size.height));
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    boolean contains(float pointX, float pointY) {
+        return pointX >= x && pointX <= x + size.width && pointY >= y && pointY <= y + size.height;
+    }
+
+    boolean intersects(float minX, float minY, float maxX, float maxY) {
+        return x <= maxX && x + size.width >= minX && y <= maxY && y + size.height >= minY;
+    }
+
+    public void setColor(int color) {
+        this.appearance = appearance.withColor(color);
+        attributesChanged();
+    }
+
+    public void setSprite(Sprite sprite) {
+        this.appearance = appearance.withSprite(sprite);
+        attributesChanged();
+    }
+
+    public void setBehaviorParameter(String parameter, double value) {
+        this.behavior = behavior.with(parameter, value);
+        attributesChanged();
+    }
+
+    // Puts back a previously captured state (undo/redo). Attribute blocks are shared with the captured state, not copied.
+    void restore(float newX, float newY, Dimensions newSize, Appearance newAppearance, Behavior newBehavior) {
+        float oldX = x;
+        float oldY = y;
+        Dimensions oldSize = size;
+        boolean attributesChanged = newAppearance != appearance || newBehavior != behavior;
+        this.x = newX;
+        this.y = newY;
+        this.size = newSize;
+        this.appearance = newAppearance;
+        this.behavior = newBehavior;
+        if (changeListener != null) {
+            if (oldX != newX || oldY != newY || oldSize != newSize) {
+                changeListener.geometryChanged(this, oldX, oldY, oldSize.width, oldSize.height);
+            }
+            if (attributesChanged) {
+                changeListener.attributesChanged(this);
+            }
+        }
+    }
+
+    // Restores a saved behavior in one step instead of one copy per parameter.
+    void setBehavior(Behavior behavior) {
+        this.behavior = behavior;
+        attributesChanged();
+    }
+
+    private void attributesChanged() {
+        if (changeListener != null) {
+            changeListener.attributesChanged(this);
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getPrototypeName() {
+        return prototypeName;
+    }
+
+    void setPrototypeName(String prototypeName) {
+        this.prototypeName = prototypeName;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public Dimensions getSize() {
+        return size;
+    }
+
+    public Appearance getAppearance() {
+        return appearance;
+    }
+
+    public Behavior getBehavior() {
+        return behavior;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s#%d(%s) at (%.1f, %.1f) size %s, %s, %s", kind, id, prototypeName, x, y, size, appearance, behavior);
+    }
+}
+
+// Central registry of pre-configured prototypes, e.g. "Red Enemy" or "Wooden Platform".
+class PrototypeRegistry {
+
+    private final Map<String, GameObject> prototypes = new LinkedHashMap<>();
+
+    public void register(String name, GameObject prototype) {
+        prototype.setPrototypeName(name);
+        prototypes.put(name, prototype);
+    }
+
+    public GameObject getPrototype(String name) {
+        GameObject prototype = prototypes.get(name);
+        if (prototype == null) {
+            throw new IllegalArgumentException("Unknown prototype: " + name);
+        }
+        return prototype;
+    }
+
+    public Collection<String> names() {
+        return Collections.unmodifiableCollection(prototypes.keySet());
+    }
+
+    public boolean contains(String name) {
+        return prototypes.containsKey(name);
+    }
+
+    public GameObject create(String name, float x, float y) {
+        GameObject object = getPrototype(name).clone();
+        object.moveTo(x, y);
+        return object;
+    }
+}
+
+// Uniform grid over the (unbounded) level. Each object is listed in every cell its rectangle overlaps, so point, rectangle and
+// nearest-neighbour queries only visit the cells around the query instead of every object. Only non-empty cells are stored.
+class SpatialGrid {
+
+    private final float cellSize;
+    private Map<Long, List<GameObject>> cells = new HashMap<>();
+    private int peakCells;      // A HashMap never shrinks its table, so it is copied once most of its cells are gone
+    private int minCellX = Integer.MAX_VALUE;   // Occupied area, bounds the k-nearest search
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+    private boolean extentStale;    // A cell on the edge of the occupied area was emptied, so it may have shrunk
+
+    SpatialGrid(float cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.cellSize = cellSize;
+    }
+
+    void insert(GameObject object) {
+        Dimensions size = object.getSize();
+        forEachCell(object.getX(), object.getY(), size.width, size.height, true, object);
+    }
+
+    void remove(GameObject object) {
+        Dimensions size = object.getSize();
+        forEachCell(object.getX(), object.getY(), size.width, size.height, false, object);
+    }
+
+    // Incremental update : only the cells the object left or entered are touched.
+    void update(GameObject object, float oldX, float oldY, float oldWidth, float oldHeight) {
+        Dimensions size = object.getSize();
+        if (cell(oldX) == cell(object.getX()) && cell(oldY) == cell(object.getY())
+                && cell(oldX + oldWidth) == cell(object.getX() + size.width) && cell(oldY + oldHeight) == cell(object.getY() + size.height)) {
+            return;     // Still covers the same cells
+        }
+        forEachCell(oldX, oldY, oldWidth, oldHeight, false, object);
+        forEachCell(object.getX(), object.getY(), size.width, size.height, true, object);
+    }
+
+    private void forEachCell(float x, float y, float width, float height, boolean add, GameObject object) {
+        int fromX = cell(x);
+        int fromY = cell(y);
+        int toX = cell(x + width);
+        int toY = cell(y + height);
+        for (int cellX = fromX; cellX <= toX; cellX++) {
+            for (int cellY = fromY; cellY <= toY; cellY++) {
+                long key = key(cellX, cellY);
+                if (add) {
+                    cells.computeIfAbsent(key, ignored -> new ArrayList<>(4)).add(object);
+                    peakCells = Math.max(peakCells, cells.size());
+                } else {
+                    List<GameObject> cell = cells.get(key);
+                    if (cell != null) {
+                        int index = cell.indexOf(object);
+                        if (index >= 0) {
+                            cell.set(index, cell.get(cell.size() - 1));     // Order inside a cell doesn't matter
+                            cell.remove(cell.size() - 1);
+                        }
+                        if (cell.isEmpty()) {
+                            cells.remove(key);
+                            extentStale |= cellX == minCellX || cellX == maxCellX || cellY == minCellY || cellY == maxCellY;
+                        }
+                    }
+                }
+            }
+        }
+        if (!add && cells.size() < peakCells / 4) {     // Iterating the cells, as a sparse search does, costs the table size
+            cells = new HashMap<>(cells);
+            peakCells = cells.size();
+        }
+        if (add) {
+            minCellX = Math.min(minCellX, fromX);
+            minCellY = Math.min(minCellY, fromY);
+            maxCellX = Math.max(maxCellX, toX);
+            maxCellY = Math.max(maxCellY, toY);
+        }
+    }
+
+    List<GameObject> queryPoint(float x, float y) {
+        List<GameObject> hits = new ArrayList<>();
+        for (GameObject object : cells.getOrDefault(key(cell(x), cell(y)), List.of())) {
+            if (object.contains(x, y)) {
+                hits.add(object);
+            }
+        }
+        return hits;
+    }
+
+    // An object overlapping several visited cells is reported once : from the first of its cells inside the query range.
+    List<GameObject> queryRectangle(float minX, float minY, float maxX, float maxY) {
+        List<GameObject> hits = new ArrayList<>();
+        int fromX = cell(minX);
+        int fromY = cell(minY);
+        int toX = cell(maxX);
+        int toY = cell(maxY);
+        for (int cellX = fromX; cellX <= toX; cellX++) {
+            for (int cellY = fromY; cellY <= toY; cellY++) {
+                List<GameObject> cell = cells.get(key(cellX, cellY));
+                if (cell == null) {
+                    continue;
+                }
+                for (GameObject object : cell) {
+                    if (Math.max(cell(object.getX()), fromX) == cellX && Math.max(cell(object.getY()), fromY) == cellY
+                            && object.intersects(minX, minY, maxX, maxY)) {
+                        hits.add(object);
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    // Recomputed lazily, by the next search that needs it.
+    private void shrinkExtent() {
+        minCellX = Integer.MAX_VALUE;
+        minCellY = Integer.MAX_VALUE;
+        maxCellX = Integer.MIN_VALUE;
+        maxCellY = Integer.MIN_VALUE;
+        for (long key : cells.keySet()) {
+            int cellX = (int) (key >> 32);
+            int cellY = (int) key;
+            minCellX = Math.min(minCellX, cellX);
+            minCellY = Math.min(minCellY, cellY);
+            maxCellX = Math.max(maxCellX, cellX);
+            maxCellY = Math.max(maxCellY, cellY);
+        }
+        extentStale = false;
+    }
+
+    // Visits rings of cells around the point. After ring r, anything not seen yet is at least r cells away,
+    // so the search stops as soon as the k-th best distance is within that bound.
+    // In a sparse level the rings would mostly visit empty cells : once they have covered more cells than are occupied,
+    // the rest of the occupied cells are scanned directly, so a query never costs more than about twice a full scan.
+    List<GameObject> nearest(float x, float y, int k) {
+        if (k <= 0 || cells.isEmpty()) {
+            return List.of();
+        }
+        if (extentStale) {
+            shrinkExtent();
+        }
+        PriorityQueue<GameObject> best = new PriorityQueue<>(k + 1,
+                Comparator.comparingDouble((GameObject object) -> object.distanceTo(x, y)).reversed());
+        Set<GameObject> seen = new HashSet<>();
+        int centerX = cell(x);
+        int centerY = cell(y);
+        int maxRing = Math.max(Math.max(Math.abs(centerX - minCellX), Math.abs(maxCellX - centerX)),
+                Math.max(Math.abs(centerY - minCellY), Math.abs(maxCellY - centerY)));
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int cellX = centerX - ring; cellX <= centerX + ring; cellX++) {
+                boolean edgeColumn = cellX == centerX - ring || cellX == centerX + ring;
+                for (int cellY = centerY - ring; cellY <= centerY + ring; cellY += edgeColumn ? 1 : 2 * ring) {
+                    for (GameObject object : cells.getOrDefault(key(cellX, cellY), List.of())) {
+                        if (seen.add(object)) {
+                            best.add(object);
+                            if (best.size() > k) {
+                                best.poll();
+                            }
+                        }
+                    }
+                    if (ring == 0) {
+                        break;
+                    }
+                }
+            }
+            if (best.size() == k && best.peek().distanceTo(x, y) <= ring * cellSize) {
+                break;
+            }
+            if ((long) (2 * ring + 1) * (2 * ring + 1) > cells.size()) {
+                for (List<GameObject> cell : cells.values()) {
+                    for (GameObject object : cell) {
+                        if (seen.add(object)) {
+                            best.add(object);
+                            if (best.size() > k) {
+                                best.poll();
+                            }
+                        }
+                    }
+                }
+                break;
+            }
+        }
+        List<GameObject> result = new ArrayList<>(best);
+        result.sort(Comparator.comparingDouble(object -> object.distanceTo(x, y)));
+        return result;
+    }
+
+    private int cell(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+}
+
+// Objects placed on the map, in placement order, plus a spatial index for hit-testing, box-select and viewport culling.
+// The level also remembers what changed since the last save, so an autosave only writes those objects.
+class Level implements ObjectChangeListener {
+
+    static final float DEFAULT_CELL_SIZE = 128;
+
+    private final Map<Long, GameObject> objects = new LinkedHashMap<>();
+    private final SpatialGrid index;
+    private final List<GameObject> unsaved = new ArrayList<>();     // Objects flagged unsaved, each listed once
+    private final Set<Long> removedSinceSave = new HashSet<>();
+
+    Level() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    // Pick a cell size around the typical object size : too small and big objects sit in many cells, too large and cells get crowded.
+    Level(float cellSize) {
+        this.index = new SpatialGrid(cellSize);
+    }
+
+    public GameObject place(GameObject object) {
+        objects.put(object.getId(), object);
+        index.insert(object);
+        object.setChangeListener(this);
+        removedSinceSave.remove(object.getId());
+        markUnsaved(object);
+        return object;
+    }
+
+    public GameObject remove(long id) {
+        GameObject object = objects.remove(id);
+        if (object != null) {
+            index.remove(object);
+            object.setChangeListener(null);
+            removedSinceSave.add(id);
+        }
+        return object;
+    }
+
+    @Override
+    public void geometryChanged(GameObject object, float oldX, float oldY, float oldWidth, float oldHeight) {
+        index.update(object, oldX, oldY, oldWidth, oldHeight);
+        markUnsaved(object);
+    }
+
+    @Override
+    public void attributesChanged(GameObject object) {
+        markUnsaved(object);
+    }
+
+    private void markUnsaved(GameObject object) {
+        if (!object.isUnsaved()) {
+            object.setUnsaved(true);
+            unsaved.add(object);
+        }
+    }
+
+    // Placed objects changed since the last save. Objects removed in the meantime are skipped.
+    List<GameObject> unsavedObjects() {
+        List<GameObject> changed = new ArrayList<>(unsaved.size());
+        for (GameObject object : unsaved) {
+            if (objects.get(object.getId()) == object) {
+                changed.add(object);
+            }
+        }
+        return changed;
+    }
+
+    Set<Long> removedSinceSave() {
+        return Collections.unmodifiableSet(removedSinceSave);
+    }
+
+    boolean hasUnsavedChanges() {
+        return !unsaved.isEmpty() || !removedSinceSave.isEmpty();
+    }
+
+    void markSaved() {
+        for (GameObject object : unsaved) {
+            object.setUnsaved(false);
+        }
+        unsaved.clear();
+        removedSinceSave.clear();
+    }
+
+    // Hit-test
+    public List<GameObject> objectsAt(float x, float y) {
+        return index.queryPoint(x, y);
+    }
+
+    // Box-select and viewport culling
+    public List<GameObject> objectsIn(float minX, float minY, float maxX, float maxY) {
+        return index.queryRectangle(minX, minY, maxX, maxY);
+    }
+
+    public List<GameObject> nearest(float x, float y, int k) {
+        return index.nearest(x, y, k);
+    }
+
+    public GameObject get(long id) {
+        return objects.get(id);
+    }
+
+    public Collection<GameObject> objects() {
+        return Collections.unmodifiableCollection(objects.values());
+    }
+
+    public int size() {
+        return objects.size();
+    }
+}
+
+// Level file, version 1 :
+//   header   : int magic "LVL1", short version
+//   segments : byte kind (BASE or DELTA), int payload length, payload
+//   payload  : new prototype names (int count, strings), placed or changed objects (int count, records),
+//              removed ids (int count, longs)
+//   record   : long id, int prototype index, float x, float y, byte override flags, then only the overridden fields
+// The first segment is a BASE with every object. Each autosave appends a DELTA with the objects changed since the previous
+// save, and later records win. Once the deltas outgrow the base, the next save rewrites the file as a single BASE (compaction).
+// A partly written last segment, e.g. after a crash during autosave, is ignored on load.
+class LevelFile {
+
+    static final int MAGIC = 0x4C564C31;    // "LVL1"
+    static final short VERSION = 1;
+    private static final int HEADER_SIZE = Integer.BYTES + Short.BYTES;
+    private static final byte BASE = 'B';
+    private static final byte DELTA = 'D';
+    private static final int MAX_DELTAS = 64;
+
+    private static final int SIZE_OVERRIDE = 1;
+    private static final int COLOR_OVERRIDE = 2;
+    private static final int SPRITE_OVERRIDE = 4;
+    private static final int BEHAVIOR_OVERRIDE = 8;
+
+    private final Path path;
+    private final PrototypeRegistry registry;
+    private final List<String> prototypeTable = new ArrayList<>();    // Names already written to the file, by index
+    private final Map<String, Integer> prototypeIndex = new HashMap<>();
+    private long baseBytes = -1;    // -1 until the file was written or read through this instance
+    private long deltaBytes;
+    private int deltaCount;
+
+    LevelFile(Path path, PrototypeRegistry registry) {
+        this.path = path;
+        this.registry = registry;
+    }
+
+    // Writes the whole level as a single BASE segment, replacing the file atomically.
+    // Throws IllegalArgumentException, leaving the file as it was, when an object uses a sprite no registered prototype owns.
+    public void save(Level level) throws IOException {
+        prototypeTable.clear();
+        prototypeIndex.clear();
+        Collection<GameObject> objects = level.objects();
+        byte[] segment;
+        try {
+            segment = segment(BASE, objects, Set.of());
+        } catch (RuntimeException e) {
+            baseBytes = -1;     // The name table no longer matches the file, so the next autosave must rewrite it
+            throw e;
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION);
+            out.write(header.array());
+            out.write(segment);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        baseBytes = segment.length;
+        deltaBytes = 0;
+        deltaCount = 0;
+        level.markSaved();
+    }
+
+    // Appends only what changed since the last save, or compacts when the deltas have grown too large.
+    public void autosave(Level level) throws IOException {
+        if (baseBytes < 0 || deltaBytes > baseBytes || deltaCount >= MAX_DELTAS) {
+            save(level);
+            return;
+        }
+        if (!level.hasUnsavedChanges()) {
+            return;
+        }
+        int tableSize = prototypeTable.size();
+        byte[] segment;
+        try {
+            segment = segment(DELTA, level.unsavedObjects(), level.removedSinceSave());
+        } catch (RuntimeException e) {
+            prototypeTable.subList(tableSize, prototypeTable.size()).forEach(prototypeIndex::remove);
+            prototypeTable.subList(tableSize, prototypeTable.size()).clear();
+            throw e;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(segment);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        deltaBytes += segment.length;
+        deltaCount++;
+        level.markSaved();
+    }
+
+    public Level load() throws IOException {
+        return load(Level.DEFAULT_CELL_SIZE);
+    }
+
+    // Reads the file through a memory mapping : no copy into a heap buffer, the OS pages it in as it is parsed.
+    // A torn last segment, left by a crash while appending, is skipped, and the next autosave rewrites the whole file.
+    public Level load(float cellSize) throws IOException {
+        Map<Long, GameObject> loaded = new LinkedHashMap<>();
+        prototypeTable.clear();
+        prototypeIndex.clear();
+        baseBytes = -1;
+        deltaBytes = 0;
+        deltaCount = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Level file too large to map: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a level file: " + path);
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported level file version " + version + ": " + path);
+            }
+            while (buffer.remaining() >= 1 + Integer.BYTES) {
+                byte kind = buffer.get();
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;      // Torn last segment
+                }
+                if (kind != BASE && kind != DELTA) {
+                    throw new IOException("Corrupt level file, unknown segment kind " + kind + ": " + path);
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                readSegment(payload, loaded);
+                if (kind == BASE) {
+                    baseBytes = 1 + Integer.BYTES + length;
+                } else {
+                    deltaBytes += 1 + Integer.BYTES + length;
+                    deltaCount++;
+                }
+            }
+            if (buffer.hasRemaining()) {
+                baseBytes = -1;     // A delta appended after the torn bytes could never be read, so the next autosave rewrites the file
+            }
+        }
+        Level level = new Level(cellSize);
+        loaded.values().forEach(level::place);
+        level.markSaved();
+        return level;
+    }
+
+    private byte[] segment(byte kind, Collection<GameObject> objects, Set<Long> removed) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream(64 + objects.size() * 32);
+        DataOutputStream out = new DataOutputStream(records);
+        int tableSize = prototypeTable.size();
+        out.writeInt(objects.size());
+        for (GameObject object : objects) {
+            writeRecord(out, object);
+        }
+        out.writeInt(removed.size());
+        for (long id : removed) {
+            out.writeLong(id);
+        }
+
+        // The names first used by these records go in front of them
+        ByteArrayOutputStream segment = new ByteArrayOutputStream(records.size() + 64);
+        DataOutputStream framed = new DataOutputStream(segment);
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        DataOutputStream namesOut = new DataOutputStream(names);
+        namesOut.writeInt(prototypeTable.size() - tableSize);
+        for (String name : prototypeTable.subList(tableSize, prototypeTable.size())) {
+            writeString(namesOut, name);
+        }
+        framed.writeByte(kind);
+        framed.writeInt(names.size() + records.size());
+        names.writeTo(framed);
+        records.writeTo(framed);
+        return segment.toByteArray();
+    }
+
+    // Only what differs from the prototype is written : a freshly stamped object is 21 bytes.
+    private void writeRecord(DataOutputStream out, GameObject object) throws IOException {
+        GameObject prototype = registry.getPrototype(object.getPrototypeName());
+        Dimensions size = object.getSize();
+        Appearance appearance = object.getAppearance();
+        Behavior behavior = object.getBehavior();
+        int flags = 0;
+        if (size != prototype.getSize() && (size.width != prototype.getSize().width || size.height != prototype.getSize().height)) {
+            flags |= SIZE_OVERRIDE;
+        }
+        if (appearance.color != prototype.getAppearance().color) {
+            flags |= COLOR_OVERRIDE;
+        }
+        if (appearance.sprite != prototype.getAppearance().sprite) {
+            flags |= SPRITE_OVERRIDE;
+        }
+        if (behavior != prototype.getBehavior() && !behavior.parameters.equals(prototype.getBehavior().parameters)) {
+            flags |= BEHAVIOR_OVERRIDE;
+        }
+        out.writeLong(object.getId());
+        out.writeInt(prototypeIndexOf(object.getPrototypeName()));
+        out.writeFloat(object.getX());
+        out.writeFloat(object.getY());
+        out.writeByte(flags);
+        if ((flags & SIZE_OVERRIDE) != 0) {
+            out.writeFloat(size.width);
+            out.writeFloat(size.height);
+        }
+        if ((flags & COLOR_OVERRIDE) != 0) {
+            out.writeInt(appearance.color);
+        }
+        if ((flags & SPRITE_OVERRIDE) != 0) {
+            if (registeredSprite(appearance.sprite.name) != appearance.sprite) {   // Checked here, or load would reject the file
+                throw new IllegalArgumentException("Object " + object.getId() + " uses sprite " + appearance.sprite.name
+                        + ", which no registered prototype owns, so it can't be saved");
+            }
+            writeString(out, appearance.sprite.name);
+        }
+        if ((flags & BEHAVIOR_OVERRIDE) != 0) {
+            out.writeInt(behavior.parameters.size());
+            for (Map.Entry<String, Double> parameter : behavior.parameters.entrySet()) {
+                writeString(out, parameter.getKey());
+                out.writeDouble(parameter.getValue());
+            }
+        }
+    }
+
+    private void readSegment(ByteBuffer in, Map<Long, GameObject> loaded) throws IOException {
+        int newNames = in.getInt();
+        for (int i = 0; i < newNames; i++) {
+            String name = readString(in);
+            prototypeIndex.put(name, prototypeTable.size());
+            prototypeTable.add(name);
+        }
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            GameObject object = readRecord(in);
+            loaded.put(object.getId(), object);
+        }
+        int removed = in.getInt();
+        for (int i = 0; i < removed; i++) {
+            loaded.remove(in.getLong());
+        }
+    }
+
+    private GameObject readRecord(ByteBuffer in) throws IOException {
+        long id = in.getLong();
+        int type = in.getInt();
+        if (type < 0 || type >= prototypeTable.size()) {
+            throw new IOException("Corrupt level file, unknown prototype index " + type + ": " + path);
+        }
+        GameObject object = registry.create(prototypeTable.get(type), in.getFloat(), in.getFloat());
+        object.restoreId(id);
+        int flags = in.get();
+        if ((flags & SIZE_OVERRIDE) != 0) {
+            object.resize(in.getFloat(), in.getFloat());
+        }
+        if ((flags & COLOR_OVERRIDE) != 0) {
+            object.setColor(in.getInt());
+        }
+        if ((flags & SPRITE_OVERRIDE) != 0) {
+            object.setSprite(spriteNamed(readString(in)));
+        }
+        if ((flags & BEHAVIOR_OVERRIDE) != 0) {
+            int parameters = in.getInt();
+            Map<String, Double> values = new HashMap<>();
+            for (int i = 0; i < parameters; i++) {
+                values.put(readString(in), in.getDouble());
+            }
+            object.setBehavior(new Behavior(object.getBehavior().name, values));
+        }
+        return object;
+    }
+
+    // Sprites are assets, not level data : an overridden sprite is stored by name and must belong to some prototype.
+    private Sprite spriteNamed(String name) throws IOException {
+        Sprite sprite = registeredSprite(name);
+        if (sprite == null) {
+            throw new IOException("Level file references unknown sprite " + name + ": " + path);
+        }
+        return sprite;
+    }
+
+    private Sprite registeredSprite(String name) {
+        for (String prototypeName : registry.names()) {
+            Sprite sprite = registry.getPrototype(prototypeName).getAppearance().sprite;
+            if (sprite.name.equals(name)) {
+                return sprite;
+            }
+        }
+        return null;
+    }
+
+    private int prototypeIndexOf(String name) {
+        Integer index = prototypeIndex.get(name);
+        if (index == null) {
+            index = prototypeTable.size();
+            prototypeTable.add(name);
+            prototypeIndex.put(name, index);
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {    // The length is stored as an unsigned short
+            throw new IllegalArgumentException("String too long to save (" + bytes.length + " bytes): "
+                    + value.substring(0, 32) + "...");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// State of a set of objects at one point in time. Only the fields an edit touched are kept, and the blocks are the ones the
+// objects pointed at, shared rather than copied : a move of 10k objects keeps two float arrays, not 10k object copies.
+final class ObjectStates {
+
+    static final int POSITION = 1;
+    static final int SIZE = 2;
+    static final int APPEARANCE = 4;
+    static final int BEHAVIOR = 8;
+    static final int ALL = POSITION | SIZE | APPEARANCE | BEHAVIOR;
+
+    private final GameObject[] objects;
+    private final int fields;
+    private final float[] x;
+    private final float[] y;
+    private final Dimensions[] sizes;
+    private final Appearance[] appearances;
+    private final Behavior[] behaviors;
+
+    private ObjectStates(GameObject[] objects, int fields, float[] x, float[] y, Dimensions[] sizes, Appearance[] appearances,
+            Behavior[] behaviors) {
+        this.objects = objects;
+        this.fields = fields;
+        this.x = x;
+        this.y = y;
+        this.sizes = sizes;
+        this.appearances = appearances;
+        this.behaviors = behaviors;
+    }
+
+    static ObjectStates capture(GameObject[] objects, int fields) {
+        int count = objects.length;
+        float[] x = (fields & POSITION) != 0 ? new float[count] : null;
+        float[] y = (fields & POSITION) != 0 ? new float[count] : null;
+        Dimensions[] sizes = (fields & SIZE) != 0 ? new Dimensions[count] : null;
+        Appearance[] appearances = (fields & APPEARANCE) != 0 ? new Appearance[count] : null;
+        Behavior[] behaviors = (fields & BEHAVIOR) != 0 ? new Behavior[count] : null;
+        for (int i = 0; i < count; i++) {
+            GameObject object = objects[i];
+            if (x != null) {
+                x[i] = object.getX();
+                y[i] = object.getY();
+            }
+            if (sizes != null) {
+                sizes[i] = object.getSize();
+            }
+            if (appearances != null) {
+                appearances[i] = object.getAppearance();
+            }
+            if (behaviors != null) {
+                behaviors[i] = object.getBehavior();
+            }
+        }
+        return new ObjectStates(objects, fields, x, y, sizes, appearances, behaviors);
+    }
+
+    // Fields that differ between two captures of the same objects.
+    int changedFields(ObjectStates other) {
+        int changed = 0;
+        for (int i = 0; i < objects.length; i++) {
+            if ((fields & POSITION) != 0 && (x[i] != other.x[i] || y[i] != other.y[i])) {
+                changed |= POSITION;
+            }
+            if ((fields & SIZE) != 0 && sizes[i] != other.sizes[i]) {
+                changed |= SIZE;
+            }
+            if ((fields & APPEARANCE) != 0 && appearances[i] != other.appearances[i]) {
+                changed |= APPEARANCE;
+            }
+            if ((fields & BEHAVIOR) != 0 && behaviors[i] != other.behaviors[i]) {
+                changed |= BEHAVIOR;
+            }
+        }
+        return changed;
+    }
+
+    // Drops the arrays of fields outside the mask. The arrays kept are shared, not copied.
+    ObjectStates keep(int mask) {
+        int kept = fields & mask;
+        return new ObjectStates(objects, kept,
+                (kept & POSITION) != 0 ? x : null, (kept & POSITION) != 0 ? y : null,
+                (kept & SIZE) != 0 ? sizes : null, (kept & APPEARANCE) != 0 ? appearances : null,
+                (kept & BEHAVIOR) != 0 ? behaviors : null);
+    }
+
+    // Puts the captured fields back. Objects already in that state are left alone, so indexes only see real changes.
+    void apply() {
+        for (int i = 0; i < objects.length; i++) {
+            GameObject object = objects[i];
+            float newX = x != null ? x[i] : object.getX();
+            float newY = y != null ? y[i] : object.getY();
+            Dimensions newSize = sizes != null ? sizes[i] : object.getSize();
+            Appearance newAppearance = appearances != null ? appearances[i] : object.getAppearance();
+            Behavior newBehavior = behaviors != null ? behaviors[i] : object.getBehavior();
+            if (newX != object.getX() || newY != object.getY() || newSize != object.getSize()
+                    || newAppearance != object.getAppearance() || newBehavior != object.getBehavior()) {
+                object.restore(newX, newY, newSize, newAppearance, newBehavior);
+            }
+        }
+    }
+
+    // The fields of primary, plus those of secondary that primary doesn't have. Both must capture the same objects.
+    static ObjectStates overlay(ObjectStates primary, ObjectStates secondary) {
+        boolean position = (primary.fields & POSITION) != 0;
+        boolean size = (primary.fields & SIZE) != 0;
+        boolean appearance = (primary.fields & APPEARANCE) != 0;
+        boolean behavior = (primary.fields & BEHAVIOR) != 0;
+        return new ObjectStates(primary.objects, primary.fields | secondary.fields,
+                position ? primary.x : secondary.x, position ? primary.y : secondary.y,
+                size ? primary.sizes : secondary.sizes, appearance ? primary.appearances : secondary.appearances,
+                behavior ? primary.behaviors : secondary.behaviors);
+    }
+
+    GameObject[] objects() {
+        return objects;
+    }
+
+    int fields() {
+        return fields;
+    }
+
+    // Rough retained size, for the history's memory budget. Shared blocks are not counted, they belong to the level.
+    long estimatedBytes() {
+        long perObject = 0;
+        perObject += (fields & POSITION) != 0 ? 2 * Float.BYTES : 0;
+        perObject += Integer.bitCount(fields & (SIZE | APPEARANCE | BEHAVIOR)) * EditHistory.REFERENCE_BYTES;
+        return 48 + perObject * objects.length;
+    }
+}
+
+// Undo/redo as a log of edits. Each edit keeps the before and after state of just the objects it touched, so undoing or
+// redoing a 10k-object bulk edit costs O(10k), whatever the size of the level.
+// - Repeating an edit with the same name on the same objects (dragging, nudging a slider) coalesces into one entry.
+// - Every checkpointInterval edits, a checkpoint captures the whole level, sharing its blocks. Undoing many steps at once
+//   jumps to a checkpoint when that is cheaper than replaying every edit backwards.
+// - When the history outgrows its memory budget, the oldest edits and checkpoints are dropped. The latest edit is always kept.
+class EditHistory {
+
+    static final int REFERENCE_BYTES = 4;   // Compressed oops
+
+    private interface Edit {
+
+        String name();
+
+        void undo(Level level);
+
+        void redo(Level level);
+
+        int size();     // Objects touched
+
+        long estimatedBytes();
+    }
+
+    private record StateEdit(String name, ObjectStates before, ObjectStates after) implements Edit {
+
+        public void undo(Level level) {
+            before.apply();
+        }
+
+        public void redo(Level level) {
+            after.apply();
+        }
+
+        public int size() {
+            return before.objects().length;
+        }
+
+        public long estimatedBytes() {
+            return 32 + (long) size() * REFERENCE_BYTES + before.estimatedBytes() + after.estimatedBytes();
+        }
+
+        // This edit followed by next, on the same objects. A field one of them didn't touch has the same value before and
+        // after it, so the other edit's capture stands in for it.
+        StateEdit followedBy(StateEdit next) {
+            return new StateEdit(name, ObjectStates.overlay(before, next.before), ObjectStates.overlay(next.after, after));
+        }
+    }
+
+    // Placing or removing objects. The objects themselves are kept, so redo puts back the very same instances.
+    private record PlacementEdit(String name, GameObject[] objects, boolean placed) implements Edit {
+
+        public void undo(Level level) {
+            apply(level, !placed);
+        }
+
+        public void redo(Level level) {
+            apply(level, placed);
+        }
+
+        private void apply(Level level, boolean place) {
+            for (GameObject object : objects) {
+                if (place) {
+                    level.place(object);
+                } else {
+                    level.remove(object.getId());
+                }
+            }
+        }
+
+        public int size() {
+            return objects.length;
+        }
+
+        public long estimatedBytes() {
+            return 32 + (long) objects.length * (REFERENCE_BYTES + 48);     // A removed object is only kept alive by the history
+        }
+    }
+
+    private record Checkpoint(GameObject[] placed, ObjectStates states) {
+
+        long estimatedBytes() {
+            return 32 + (long) placed.length * REFERENCE_BYTES + states.estimatedBytes();
+        }
+    }
+
+    private final Level level;
+    private final long memoryBudget;
+    private final int checkpointInterval;
+    private final List<Edit> edits = new ArrayList<>();
+    private final TreeMap<Long, Checkpoint> checkpoints = new TreeMap<>();  // By absolute position
+    private long base;          // Absolute position of edits.get(0), grows as old edits are dropped
+    private int position;       // Edits before this index are applied, the rest can be redone
+    private long recorded;
+    private long memoryUsed;
+
+    EditHistory(Level level, long memoryBudgetBytes, int checkpointInterval) {
+        if (memoryBudgetBytes <= 0 || checkpointInterval <= 0) {
+            throw new IllegalArgumentException("Memory budget and checkpoint interval must be positive");
+        }
+        this.level = level;
+        this.memoryBudget = memoryBudgetBytes;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    // Applies change to every target and records it as one undoable edit.
+    public void edit(String name, Collection<GameObject> targets, Consumer<GameObject> change) {
+        GameObject[] objects = targets.toArray(new GameObject[0]);
+        ObjectStates before = ObjectStates.capture(objects, ObjectStates.ALL);
+        for (GameObject object : objects) {
+            change.accept(object);
+        }
+        ObjectStates after = ObjectStates.capture(objects, ObjectStates.ALL);
+        int changed = before.changedFields(after);
+        if (changed == 0) {
+            return;
+        }
+        StateEdit edit = new StateEdit(name, before.keep(changed), after.keep(changed));
+        if (position > 0 && position == edits.size() && !checkpoints.containsKey(base + position)
+                && edits.get(position - 1) instanceof StateEdit previous
+                && previous.name().equals(name) && Arrays.equals(previous.before().objects(), objects)) {
+            memoryUsed -= previous.estimatedBytes();
+            edits.set(position - 1, previous.followedBy(edit));
+            memoryUsed += edits.get(position - 1).estimatedBytes();
+            enforceBudget();
+            return;
+        }
+        record(edit);
+    }
+
+    public void place(String name, Collection<GameObject> objects) {
+        GameObject[] placed = objects.toArray(new GameObject[0]);
+        for (GameObject object : placed) {
+            level.place(object);
+        }
+        record(new PlacementEdit(name, placed, true));
+    }
+
+    public void remove(String name, Collection<Long> ids) {
+        List<GameObject> removed = new ArrayList<>(ids.size());
+        for (long id : ids) {
+            GameObject object = level.remove(id);
+            if (object != null) {
+                removed.add(object);
+            }
+        }
+        record(new PlacementEdit(name, removed.toArray(new GameObject[0]), false));
+    }
+
+    public boolean undo() {
+        return undo(1) == 1;
+    }
+
+    public boolean redo() {
+        if (position == edits.size()) {
+            return false;
+        }
+        edits.get(position++).redo(level);
+        return true;
+    }
+
+    // Undoes up to steps edits and returns how many were undone. Jumps to a checkpoint when restoring it and undoing the
+    // rest costs less than undoing every step.
+    public int undo(int steps) {
+        int target = Math.max(0, position - steps);
+        long replayCost = 0;
+        for (int i = target; i < position; i++) {
+            replayCost += edits.get(i).size();
+        }
+        Map.Entry<Long, Checkpoint> checkpoint = checkpoints.ceilingEntry(base + target);
+        if (checkpoint != null && checkpoint.getKey() < base + position) {
+            int checkpointIndex = (int) (checkpoint.getKey() - base);
+            long cost = level.size() + checkpoint.getValue().placed().length;
+            for (int i = target; i < checkpointIndex; i++) {
+                cost += edits.get(i).size();
+            }
+            if (cost < replayCost) {
+                restore(checkpoint.getValue());
+                int undone = position - target;
+                position = checkpointIndex;
+                while (position > target) {
+                    edits.get(--position).undo(level);
+                }
+                return undone;
+            }
+        }
+        int undone = position - target;
+        while (position > target) {
+            edits.get(--position).undo(level);
+        }
+        return undone;
+    }
+
+    public boolean canUndo() {
+        return position > 0;
+    }
+
+    public boolean canRedo() {
+        return position < edits.size();
+    }
+
+    public long memoryUsed() {
+        return memoryUsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d undo / %d redo steps, %d checkpoints, ~%d KB of %d KB budget",
+                position, edits.size() - position, checkpoints.size(), memoryUsed / 1024, memoryBudget / 1024);
+    }
+
+    private void record(Edit edit) {
+        // A new edit discards whatever could have been redone
+        while (edits.size() > position) {
+            memoryUsed -= edits.remove(edits.size() - 1).estimatedBytes();
+        }
+        while (!checkpoints.isEmpty() && checkpoints.lastKey() > base + position) {
+            memoryUsed -= checkpoints.pollLastEntry().getValue().estimatedBytes();
+        }
+        edits.add(edit);
+        position++;
+        memoryUsed += edit.estimatedBytes();
+        if (++recorded % checkpointInterval == 0) {
+            Checkpoint checkpoint = checkpoint();
+            checkpoints.put(base + position, checkpoint);
+            memoryUsed += checkpoint.estimatedBytes();
+        }
+        enforceBudget();
+    }
+
+    private void enforceBudget() {
+        while (memoryUsed > memoryBudget && edits.size() > 1 && position > 1) {
+            memoryUsed -= edits.remove(0).estimatedBytes();
+            position--;
+            base++;
+            while (!checkpoints.isEmpty() && checkpoints.firstKey() < base) {
+                memoryUsed -= checkpoints.pollFirstEntry().getValue().estimatedBytes();
+            }
+        }
+        while (memoryUsed > memoryBudget && !checkpoints.isEmpty()) {
+            memoryUsed -= checkpoints.pollFirstEntry().getValue().estimatedBytes();
+        }
+    }
+
+    private Checkpoint checkpoint() {
+        GameObject[] placed = level.objects().toArray(new GameObject[0]);
+        return new Checkpoint(placed, ObjectStates.capture(placed, ObjectStates.ALL));
+    }
+
+    private void restore(Checkpoint checkpoint) {
+        Set<GameObject> wanted = Collections.newSetFromMap(new IdentityHashMap<>(checkpoint.placed().length * 2));
+        Collections.addAll(wanted, checkpoint.placed());
+        for (GameObject object : level.objects().toArray(new GameObject[0])) {
+            if (!wanted.contains(object)) {
+                level.remove(object.getId());
+            }
+        }
+        for (GameObject object : checkpoint.placed()) {
+            if (level.get(object.getId()) != object) {
+                level.place(object);
+            }
+        }
+        checkpoint.states().apply();
+    }
+}
+
+// Open-addressing id -> slot map, so dense storage doesn't pay a boxed Long and a map node per object.
+final class LongIntMap {
+
+    private static final long EMPTY = 0;     // Ids start at 1
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return -1;
+    }
+
+    // Grow once up front before a bulk insert instead of doubling repeatedly on the way.
+    void ensureCapacity(int expectedSize) {
+        int capacity = keys.length;
+        while (expectedSize * 2 > capacity) {
+            capacity *= 2;
+        }
+        if (capacity != keys.length) {
+            rehash(capacity);
+        }
+    }
+
+    void put(long key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            size++;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones.
+    void remove(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != key) {
+            if (keys[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        size--;
+        for (int next = (i + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                keys[i] = keys[next];
+                values[i] = values[next];
+                i = next;
+            }
+        }
+        keys[i] = EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    // Ids come from one sequence shared with regular objects, so a dense level's ids are strided. Mixing the bits keeps
+    // strided ids from piling up into long probe runs.
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
+
+// Optional dense storage mode for very large levels. Position, size and color live in parallel primitive arrays (struct of
+// arrays), about 32 bytes per object instead of a GameObject each, and everything else comes from the object's prototype.
+// Bulk edits are plain loops over the arrays, which the JIT unrolls and vectorizes where the access is contiguous.
+// Objects that need their own sprite or behavior belong in a regular Level.
+// Slots are positions in the arrays : a selection of slots stays valid until the next remove.
+class DenseLevel {
+
+    private final PrototypeRegistry registry;
+    private final List<GameObject> prototypes = new ArrayList<>();     // Prototype table, indexed by the prototype column
+    private final Map<String, Integer> prototypeIndex = new HashMap<>();
+    private final LongIntMap slotById;
+
+    private long[] ids;
+    private int[] prototype;
+    private float[] x;
+    private float[] y;
+    private float[] width;
+    private float[] height;
+    private int[] color;
+    private int count;
+
+    DenseLevel(PrototypeRegistry registry, int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("Initial capacity must be positive");
+        }
+        this.registry = registry;
+        this.slotById = new LongIntMap(initialCapacity);
+        this.ids = new long[initialCapacity];
+        this.prototype = new int[initialCapacity];
+        this.x = new float[initialCapacity];
+        this.y = new float[initialCapacity];
+        this.width = new float[initialCapacity];
+        this.height = new float[initialCapacity];
+        this.color = new int[initialCapacity];
+    }
+
+    public long place(String prototypeName, float atX, float atY) {
+        int type = prototypeIndexOf(prototypeName);
+        GameObject source = prototypes.get(type);
+        ensureCapacity(count + 1);
+        int slot = count++;
+        ids[slot] = GameObject.nextId();
+        prototype[slot] = type;
+        x[slot] = atX;
+        y[slot] = atY;
+        width[slot] = source.getSize().width;
+        height[slot] = source.getSize().height;
+        color[slot] = source.getAppearance().color;
+        slotById.put(ids[slot], slot);
+        return ids[slot];
+    }
+
+    // The last object moves into the freed slot.
+    public boolean remove(long id) {
+        int slot = slotById.get(id);
+        if (slot < 0) {
+            return false;
+        }
+        slotById.remove(id);
+        int last = --count;
+        if (slot != last) {
+            ids[slot] = ids[last];
+            prototype[slot] = prototype[last];
+            x[slot] = x[last];
+            y[slot] = y[last];
+            width[slot] = width[last];
+            height[slot] = height[last];
+            color[slot] = color[last];
+            slotById.put(ids[slot], slot);
+        }
+        return true;
+    }
+
+    // Move every object. Contiguous arrays, no branches : this is the loop shape C2 turns into SIMD adds.
+    public void translateAll(float dx, float dy) {
+        float[] xs = x;
+        float[] ys = y;
+        for (int i = 0; i < count; i++) {
+            xs[i] += dx;
+        }
+        for (int i = 0; i < count; i++) {
+            ys[i] += dy;
+        }
+    }
+
+    // Move a selection of slots.
+    public void translate(int[] slots, float dx, float dy) {
+        float[] xs = x;
+        float[] ys = y;
+        for (int slot : slots) {
+            xs[slot] += dx;
+            ys[slot] += dy;
+        }
+    }
+
+    // Appends the selection copies times, copy n offset by n * (dx, dy). Returns the slots of the new objects.
+    public int[] cloneSelection(int[] slots, int copies, float dx, float dy) {
+        if (copies < 0) {
+            throw new IllegalArgumentException("Copies must not be negative");
+        }
+        int added = slots.length * copies;
+        ensureCapacity(count + added);
+        int[] created = new int[added];
+        int target = count;
+        for (int copy = 1; copy <= copies; copy++) {
+            float offsetX = dx * copy;
+            float offsetY = dy * copy;
+            for (int slot : slots) {
+                prototype[target] = prototype[slot];
+                x[target] = x[slot] + offsetX;
+                y[target] = y[slot] + offsetY;
+                width[target] = width[slot];
+                height[target] = height[slot];
+                color[target] = color[slot];
+                created[target - count] = target;
+                target++;
+            }
+        }
+        // Ids last : they are the only per-object work that isn't a flat copy.
+        for (int slot = count; slot < target; slot++) {
+            ids[slot] = GameObject.nextId();
+            slotById.put(ids[slot], slot);
+        }
+        count = target;
+        return created;
+    }
+
+    // Recolor every object whose prototype is of the given kind. Returns how many were recolored.
+    public int recolorKind(String kind, int newColor) {
+        boolean[] matches = new boolean[prototypes.size()];
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = prototypes.get(i).getKind().equals(kind);
+        }
+        int[] types = prototype;
+        int[] colors = color;
+        int recolored = 0;
+        for (int i = 0; i < count; i++) {
+            if (matches[types[i]]) {
+                colors[i] = newColor;
+                recolored++;
+            }
+        }
+        return recolored;
+    }
+
+    // Box-select by scanning the coordinate columns, no per-object dereference.
+    public int[] selectIn(float minX, float minY, float maxX, float maxY) {
+        int[] selected = new int[16];
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            if (x[i] <= maxX && x[i] + width[i] >= minX && y[i] <= maxY && y[i] + height[i] >= minY) {
+                if (found == selected.length) {
+                    selected = Arrays.copyOf(selected, found * 2);
+                }
+                selected[found++] = i;
+            }
+        }
+        return Arrays.copyOf(selected, found);
+    }
+
+    public int slotOf(long id) {
+        return slotById.get(id);
+    }
+
+    public long idAt(int slot) {
+        if (slot < 0 || slot >= count) {
+            throw new IllegalArgumentException("No object in slot " + slot);
+        }
+        return ids[slot];
+    }
+
+    // Builds a regular GameObject view of a dense object, e.g. for the property panel. It carries the dense object's id.
+    // Changes to it are not written back.
+    public GameObject get(long id) {
+        int slot = slotById.get(id);
+        if (slot < 0) {
+            return null;
+        }
+        GameObject object = prototypes.get(prototype[slot]).cloneWithId(id);
+        object.moveTo(x[slot], y[slot]);
+        object.resize(width[slot], height[slot]);
+        object.setColor(color[slot]);
+        return object;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private int prototypeIndexOf(String name) {
+        Integer index = prototypeIndex.get(name);
+        if (index == null) {
+            index = prototypes.size();
+            prototypes.add(registry.getPrototype(name));
+            prototypeIndex.put(name, index);
+        }
+        return index;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(needed, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, capacity);
+        prototype = Arrays.copyOf(prototype, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        width = Arrays.copyOf(width, capacity);
+        height = Arrays.copyOf(height, capacity);
+        color = Arrays.copyOf(color, capacity);
+        slotById.ensureCapacity(capacity);
+    }
+}
+
+// Bulk edits on 1M objects, dense arrays against one GameObject per object.
+class DenseStorageBenchmark {
+
+    private static final int COUNT = 1_000_000;
+    private static final int ROUNDS = 20;
+
+    static void run(PrototypeRegistry registry) {
+        List<GameObject> objects = new ArrayList<>(COUNT);
+        DenseLevel dense = new DenseLevel(registry, COUNT * 2);   // Both sides presized for the clones
+        Random random = new Random(42);
+        for (int i = 0; i < COUNT; i++) {
+            String name = i % 4 == 0 ? "Wooden Platform" : "Red Enemy";
+            float atX = random.nextFloat() * 100_000;
+            float atY = random.nextFloat() * 100_000;
+            objects.add(registry.create(name, atX, atY));
+            dense.place(name, atX, atY);
+        }
+
+        for (int round = 0; round < 3; round++) {   // Warm up both paths
+            moveObjects(objects, 1, 1);
+            dense.translateAll(1, 1);
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            moveObjects(objects, 1, 1);
+        }
+        long objectMove = (System.nanoTime() - start) / ROUNDS;
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            dense.translateAll(1, 1);
+        }
+        long denseMove = (System.nanoTime() - start) / ROUNDS;
+
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (GameObject object : objects) {
+                if (object.getKind().equals("enemy")) {
+                    object.setColor(round);
+                }
+            }
+        }
+        long objectRecolor = (System.nanoTime() - start) / ROUNDS;
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            dense.recolorKind("enemy", round);
+        }
+        long denseRecolor = (System.nanoTime() - start) / ROUNDS;
+
+        // Both sides register the clones by id, the object side the way Level does. The last of three rounds is timed.
+        Map<Long, GameObject> byId = new HashMap<>(COUNT * 4);
+        objects.forEach(object -> byId.put(object.getId(), object));
+        int[] selection = dense.selectIn(0, 0, 10_000, 100_000);   // ~10% of the level
+        long objectClone = 0;
+        long denseClone = 0;
+        for (int round = 1; round <= 3; round++) {
+            start = System.nanoTime();
+            for (int slot : selection) {
+                GameObject clone = objects.get(slot).clone();
+                clone.moveTo(clone.getX() + round * 50, clone.getY());
+                byId.put(clone.getId(), clone);
+            }
+            objectClone = System.nanoTime() - start;
+            start = System.nanoTime();
+            dense.cloneSelection(selection, 1, round * 50, 0);
+            denseClone = System.nanoTime() - start;
+        }
+
+        System.out.printf("%,d objects, dense vs one object each :%n", COUNT);
+        System.out.printf("  move all      %7.2f ms vs %7.2f ms%n", denseMove / 1e6, objectMove / 1e6);
+        System.out.printf("  recolor kind  %7.2f ms vs %7.2f ms%n", denseRecolor / 1e6, objectRecolor / 1e6);
+        System.out.printf("  clone %,d     %7.2f ms vs %7.2f ms  (%d vs %d objects)%n",
+                selection.length, denseClone / 1e6, objectClone / 1e6, dense.size(), byId.size());
+    }
+
+    private static void moveObjects(List<GameObject> objects, float dx, float dy) {
+        for (GameObject object : objects) {
+            object.moveTo(object.getX() + dx, object.getY() + dy);
+        }
+    }
+}
+
+// Index build and query cost at growing level sizes, with a linear scan for comparison.
+// Run with : java Solution bench
+class SpatialIndexBenchmark {
+
+    private static final int QUERIES = 10_000;
+
+    static void run(PrototypeRegistry registry) {
+        for (int count : new int[] { 10_000, 100_000, 1_000_000 }) {
+            Random random = new Random(42);
+            float worldSize = (float) Math.sqrt(count) * 100;   // Same density at every size
+            Level level = new Level();
+            List<GameObject> all = new ArrayList<>(count);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                all.add(level.place(registry.create("Red Enemy", random.nextFloat() * worldSize, random.nextFloat() * worldSize)));
+            }
+            long buildNanos = System.nanoTime() - start;
+
+            long found = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                found += level.objectsAt(random.nextFloat() * worldSize, random.nextFloat() * worldSize).size();
+            }
+            long pointNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                float viewX = random.nextFloat() * worldSize;
+                float viewY = random.nextFloat() * worldSize;
+                found += level.objectsIn(viewX, viewY, viewX + 1_280, viewY + 720).size();
+            }
+            long rectangleNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                found += level.nearest(random.nextFloat() * worldSize, random.nextFloat() * worldSize, 10).size();
+            }
+            long nearestNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                float viewX = random.nextFloat() * worldSize;
+                float viewY = random.nextFloat() * worldSize;
+                for (GameObject object : all) {
+                    if (object.intersects(viewX, viewY, viewX + 1_280, viewY + 720)) {
+                        found++;
+                    }
+                }
+            }
+            long scanNanos = (System.nanoTime() - start) / 100;
+
+            System.out.printf("%,9d objects : build %5d ms | point %6.2f us | viewport %6.2f us | 10-nearest %6.2f us | viewport by linear scan %9.2f us  (%d)%n",
+                    count, buildNanos / 1_000_000, pointNanos / 1e3 / QUERIES, rectangleNanos / 1e3 / QUERIES,
+                    nearestNanos / 1e3 / QUERIES, scanNanos / 1e3, found);
+        }
+
+        // A big level cleared down to a few objects : a search must not walk the old area cell by cell
+        Random random = new Random(7);
+        float worldSize = 100_000;
+        Level level = new Level();
+        List<GameObject> all = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            all.add(level.place(registry.create("Red Enemy", random.nextFloat() * worldSize, random.nextFloat() * worldSize)));
+        }
+        for (GameObject object : all.subList(20, all.size())) {
+            level.remove(object.getId());
+        }
+        long found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            found += level.nearest(random.nextFloat() * worldSize, random.nextFloat() * worldSize, 10).size();
+        }
+        long fewNanos = (System.nanoTime() - start) / 1_000;
+        start = System.nanoTime();
+        for (int i = 0; i < 1_000; i++) {
+            found += level.nearest(random.nextFloat() * worldSize, random.nextFloat() * worldSize, 50).size();
+        }
+        long allNanos = (System.nanoTime() - start) / 1_000;
+        System.out.printf("Sparse level, 20 objects left of 100,000 : 10-nearest %.2f us, 50-nearest (more than exist) %.2f us  (%d)%n",
+                fewNanos / 1e3, allNanos / 1e3, found);
+    }
+}
 
 public class Solution {
-    
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        int[] enemyPixels = new int[64 * 64];
+        Arrays.fill(enemyPixels, 0xFF0000);
+        Sprite enemySprite = new Sprite("enemy.png", enemyPixels);
+        Sprite platformSprite = new Sprite("wood.png", new int[128 * 16]);
+
+        PrototypeRegistry registry = new PrototypeRegistry();
+        registry.register("Red Enemy", new GameObject("enemy", 0, 0, new Dimensions(32, 32),
+                new Appearance(0xFF0000, enemySprite), new Behavior("patrol", Map.of("speed", 2.0, "range", 120.0))));
+        registry.register("Wooden Platform", new GameObject("platform", 0, 0, new Dimensions(128, 16),
+                new Appearance(0x8B5A2B, platformSprite), new Behavior("bounce", Map.of("force", 8.0))));
+        registry.register("Checkpoint", new GameObject("checkpoint", 0, 0, new Dimensions(16, 48),     // New kind, no new class
+                new Appearance(0x00FF00, new Sprite("flag.png", new int[16 * 48])), new Behavior("save", Map.of())));
+
+        if (args.length > 0 && args[0].equals("bench")) {
+            SpatialIndexBenchmark.run(registry);
+            DenseStorageBenchmark.run(registry);
+            return;
+        }
+
+        Level level = new Level();
+        GameObject boss = level.place(registry.create("Red Enemy", 400, 50));
+        boss.resize(64, 64);
+        boss.setColor(0x990000);
+        boss.setBehaviorParameter("speed", 4.0);
+        level.place(registry.create("Wooden Platform", 380, 120));
+        level.place(registry.create("Checkpoint", 20, 100));
+        level.objects().forEach(System.out::println);
+        System.out.println("Prototype untouched: " + registry.getPrototype("Red Enemy"));
+
+        // Spatial queries only look at the cells around the query
+        System.out.println("Hit at (410, 60): " + level.objectsAt(410, 60));
+        boss.moveTo(10, 90);    // The index follows the move
+        System.out.println("Box select (0, 0)-(200, 200): " + level.objectsIn(0, 0, 200, 200).size() + " objects");
+        System.out.println("Nearest to (370, 100): " + level.nearest(370, 100, 1));
+
+        // Stamping 100k enemies : each clone is one small object, the size, appearance, sprite and behavior are shared.
+        long before = usedHeap();
+        for (int i = 0; i < 100_000; i++) {
+            level.place(registry.create("Red Enemy", (i % 1_000) * 40, (i / 1_000) * 40));
+        }
+        long after = usedHeap();
+        System.out.printf("Placed %d objects, ~%d bytes per stamped enemy (including the level's map and index entries), a deep copy would add %d bytes of sprite alone%n",
+                level.size(), (after - before) / 100_000, enemySprite.pixelCount() * Integer.BYTES);
+
+        // Dense mode : the same stamping as primitive columns, then bulk edits as loops over them
+        before = usedHeap();
+        DenseLevel dense = new DenseLevel(registry, 100_000);
+        for (int i = 0; i < 100_000; i++) {
+            dense.place("Red Enemy", (i % 1_000) * 40, (i / 1_000) * 40);
+        }
+        after = usedHeap();
+        int[] firstRow = dense.selectIn(0, 0, 40_000, 0);
+        dense.translate(firstRow, 0, -100);
+        int[] clones = dense.cloneSelection(firstRow, 2, 0, -50);
+        int recolored = dense.recolorKind("enemy", 0x0000FF);
+        System.out.printf("Dense level: %d objects, ~%d bytes per enemy, recolored %d enemies%n",
+                dense.size(), (after - before) / 100_000, recolored);
+        System.out.println("Last clone: " + dense.get(dense.idAt(clones[clones.length - 1])));
+
+        // Persistence : one full save, then autosaves append only what changed
+        Path file = Files.createTempFile("level", ".lvl");
+        LevelFile levelFile = new LevelFile(file, registry);
+        long start = System.nanoTime();
+        levelFile.save(level);
+        long saveNanos = System.nanoTime() - start;
+        long fullSize = Files.size(file);
+        boss.setBehaviorParameter("range", 300.0);
+        level.remove(level.objectsAt(410, 130).get(0).getId());     // The platform
+        level.place(registry.create("Checkpoint", 900, 100));
+        start = System.nanoTime();
+        levelFile.autosave(level);
+        long autosaveNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        Level loaded = new LevelFile(file, registry).load();
+        long loadNanos = System.nanoTime() - start;
+        System.out.printf("Saved %d objects in %d ms (%d bytes), autosaved 3 changes in %.2f ms (+%d bytes), loaded %d objects in %d ms%n",
+                level.size(), saveNanos / 1_000_000, fullSize, autosaveNanos / 1e6, Files.size(file) - fullSize,
+                loaded.size(), loadNanos / 1_000_000);
+        System.out.println("Loaded boss: " + loaded.get(boss.getId()));
+        Files.delete(file);
+
+        // Undo/redo : a bulk edit keeps only the touched fields of the touched objects
+        EditHistory history = new EditHistory(level, 64L << 20, 50);
+        List<GameObject> selection = level.objectsIn(0, 0, 3_990, 3_990);
+        history.edit("Move selection", selection, object -> object.moveTo(object.getX() + 5_000, object.getY()));
+        history.edit("Recolor selection", selection, object -> object.setColor(0x00FFFF));
+        start = System.nanoTime();
+        history.undo();
+        history.undo();
+        long undoNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        history.redo();
+        long redoNanos = System.nanoTime() - start;
+        System.out.printf("Undid 2 edits of %d objects in %.2f ms, redid the move in %.2f ms, history: %s%n",
+                selection.size(), undoNanos / 1e6, redoNanos / 1e6, history);
+    }
 }
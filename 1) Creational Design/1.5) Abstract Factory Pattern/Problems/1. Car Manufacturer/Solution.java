@@ -1,3 +1,41 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
 interface Drivable {
 
     void drive();
@@ -9,7 +47,10 @@ interface Startable {
 }
 
 interface Vehicle extends Drivable, Startable {
-    
+
+    // Called when a pooled vehicle is released, to clear whatever state the last user left behind.
+    default void reset() {
+    }
 }
 
 class Sedan implements Vehicle {
@@ -107,9 +148,984 @@ class TruckFactory implements VehicleFactory {
     }
 }
 
+// Optional on a factory class : the type name it is looked up by. Without it, the name is the class name minus "Factory",
+// e.g. SUVFactory -> "suv".
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@interface VehicleType {
+
+    String value();
+}
+
+// Registry of vehicle factories, so adding a vehicle type means adding a factory, not editing a switch.
+// - Built-in and programmatic factories are registered with register().
+// - Plugin factories are found on the class path : from the build-time index META-INF/vehicle-factories.idx when present,
+//   otherwise through ServiceLoader (META-INF/services/VehicleFactory). Discovery runs on the first unknown lookup, and it
+//   only reads class names : a factory is instantiated the first time its type is used.
+// - Lookup is case-insensitive without allocating : names are hashed and compared ignoring case, no toLowerCase() copy.
+final class VehicleRegistry {
+
+    static final String INDEX_RESOURCE = "META-INF/vehicle-factories.idx";
+
+    private static final class Holder {
+
+        private static final VehicleRegistry STANDARD = createStandard();
+    }
+
+    // A type's factory is created at most once, on first use.
+    private static final class Entry {
+
+        final String name;
+        private final Supplier<? extends VehicleFactory> supplier;
+        private volatile VehicleFactory factory;
+
+        Entry(String name, Supplier<? extends VehicleFactory> supplier) {
+            this.name = name;
+            this.supplier = supplier;
+        }
+
+        VehicleFactory factory() {
+            VehicleFactory result = factory;
+            if (result == null) {
+                synchronized (this) {
+                    result = factory;
+                    if (result == null) {
+                        result = supplier.get();
+                        factory = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        boolean isLoaded() {
+            return factory != null;
+        }
+    }
+
+    // Immutable open-addressing table, replaced as a whole on registration so lookups need no lock.
+    private static final class Table {
+
+        final Entry[] slots;
+        final int size;
+
+        Table(Entry[] slots, int size) {
+            this.slots = slots;
+            this.size = size;
+        }
+
+        Entry find(CharSequence name) {
+            int mask = slots.length - 1;
+            for (int i = hash(name) & mask; slots[i] != null; i = (i + 1) & mask) {
+                if (equalsIgnoreCase(slots[i].name, name)) {
+                    return slots[i];
+                }
+            }
+            return null;
+        }
+
+        Table with(Entry entry) {
+            int capacity = slots.length;
+            while ((size + 1) * 2 > capacity) {
+                capacity *= 2;
+            }
+            Entry[] copy = new Entry[capacity];
+            for (Entry existing : slots) {
+                if (existing != null && !equalsIgnoreCase(existing.name, entry.name)) {
+                    insert(copy, existing);
+                }
+            }
+            insert(copy, entry);
+            return new Table(copy, find(entry.name) == null ? size + 1 : size);
+        }
+
+        private static void insert(Entry[] slots, Entry entry) {
+            int mask = slots.length - 1;
+            int i = hash(entry.name) & mask;
+            while (slots[i] != null) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = entry;
+        }
+    }
+
+    private final ClassLoader loader;
+    private volatile Table table = new Table(new Entry[16], 0);
+    private volatile boolean discovered;
+
+    VehicleRegistry(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    // Built-in types plus whatever plugins the class path provides.
+    public static VehicleRegistry standard() {
+        return Holder.STANDARD;
+    }
+
+    private static VehicleRegistry createStandard() {
+        VehicleRegistry registry = new VehicleRegistry(Thread.currentThread().getContextClassLoader());
+        // Built-ins are package-private, which ServiceLoader can't instantiate, so they are registered directly
+        registry.register("sedan", SedanFactory::new);
+        registry.register("suv", SUVFactory::new);
+        registry.register("truck", TruckFactory::new);
+        return registry;
+    }
+
+    // Replaces any factory registered under the same name, ignoring case.
+    public synchronized void register(String type, Supplier<? extends VehicleFactory> factory) {
+        if (type == null || type.isEmpty()) {
+            throw new IllegalArgumentException("Vehicle type must not be empty");
+        }
+        table = table.with(new Entry(type.toLowerCase(Locale.ROOT), factory));
+    }
+
+    public VehicleFactory factoryFor(CharSequence type) {
+        Entry entry = table.find(type);
+        if (entry == null && !discovered) {
+            discover();
+            entry = table.find(type);
+        }
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown vehicle type: " + type);
+        }
+        return entry.factory();
+    }
+
+    public Vehicle createVehicle(CharSequence type) {
+        return factoryFor(type).createVehicle();
+    }
+
+    public boolean isLoaded(CharSequence type) {
+        Entry entry = table.find(type);
+        return entry != null && entry.isLoaded();
+    }
+
+    public Set<String> types() {
+        if (!discovered) {
+            discover();
+        }
+        Set<String> types = new TreeSet<>();
+        for (Entry entry : table.slots) {
+            if (entry != null) {
+                types.add(entry.name);
+            }
+        }
+        return types;
+    }
+
+    // Names registered in code win over discovered ones.
+    private synchronized void discover() {
+        if (discovered) {
+            return;
+        }
+        try {
+            Enumeration<URL> indexes = loader.getResources(INDEX_RESOURCE);
+            if (indexes.hasMoreElements()) {
+                while (indexes.hasMoreElements()) {
+                    readIndex(indexes.nextElement());
+                }
+            } else {
+                for (ServiceLoader.Provider<VehicleFactory> provider : ServiceLoader.load(VehicleFactory.class, loader).stream().toList()) {
+                    String name = typeName(provider.type());
+                    if (table.find(name) == null) {
+                        table = table.with(new Entry(name, provider::get));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + INDEX_RESOURCE, e);
+        }
+        discovered = true;
+    }
+
+    // One "type=class" line per factory. Classes are loaded only when their type is first used.
+    private void readIndex(URL index) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                int separator = line.indexOf('=');
+                if (line.isEmpty() || line.startsWith("#") || separator < 0) {
+                    continue;
+                }
+                String name = line.substring(0, separator).strip().toLowerCase(Locale.ROOT);
+                String className = line.substring(separator + 1).strip();
+                if (table.find(name) == null) {
+                    table = table.with(new Entry(name, () -> instantiate(className)));
+                }
+            }
+        }
+    }
+
+    private VehicleFactory instantiate(String className) {
+        try {
+            return Class.forName(className, true, loader).asSubclass(VehicleFactory.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create vehicle factory " + className, e);
+        }
+    }
+
+    static String typeName(Class<?> factoryClass) {
+        VehicleType annotation = factoryClass.getAnnotation(VehicleType.class);
+        if (annotation != null) {
+            return annotation.value().toLowerCase(Locale.ROOT);
+        }
+        String name = factoryClass.getSimpleName();
+        if (name.endsWith("Factory") && name.length() > "Factory".length()) {
+            name = name.substring(0, name.length() - "Factory".length());
+        }
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    // Build step : writes the index for the factories ServiceLoader finds, so startup reads one small file instead of
+    // scanning the class path. Run with : java Solution index <resources-dir>
+    static void writeIndex(ClassLoader loader, Path resourcesRoot) throws IOException {
+        Path index = resourcesRoot.resolve(INDEX_RESOURCE);
+        Files.createDirectories(index.getParent());
+        try (Writer writer = Files.newBufferedWriter(index, StandardCharsets.UTF_8)) {
+            writer.write("# Generated, one vehicle type per line : type=factory class\n");
+            for (ServiceLoader.Provider<VehicleFactory> provider : ServiceLoader.load(VehicleFactory.class, loader).stream().toList()) {
+                writer.write(typeName(provider.type()) + "=" + provider.type().getName() + "\n");
+            }
+        }
+    }
+
+    // Same as name.toLowerCase().hashCode() for ASCII names, without the copy.
+    private static int hash(CharSequence name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + lowerCase(name.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equalsIgnoreCase(String name, CharSequence other) {
+        if (name.length() != other.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != lowerCase(other.charAt(i))) {     // Stored names are already lower case
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char lowerCase(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+}
+
+// Optional pooling layer over any VehicleFactory, for simulations that churn through millions of short-lived vehicles.
+// lease() takes a vehicle from the calling thread's free list, then from a shared lock-free stack, and only creates one
+// when both are empty. release() resets the vehicle and puts it back on the thread's list. When that list is full, half of
+// it moves to the shared stack as one batch, so the stack allocates a node per batch, not per vehicle.
+// Leak detection samples one lease in leakSampleRate : a sampled vehicle that gets garbage collected without having been
+// released is reported, with the stack of the lease, by detectLeaks().
+// Vehicles sitting in the pool are tracked by identity, so releasing one twice is rejected instead of handing it out to two owners.
+// That costs two uncontended lock round trips per lease/release cycle, but still no allocation. Vehicles left in the free list of a
+// thread that has ended stay referenced by that idle set.
+class PooledVehicleFactory implements VehicleFactory {
+
+    private static final int IDLE_STRIPES = 64;
+
+    // A batch of released vehicles on the shared stack
+    private static final class Batch {
+
+        final Vehicle[] vehicles;
+        final Batch next;
+
+        Batch(Vehicle[] vehicles, Batch next) {
+            this.vehicles = vehicles;
+            this.next = next;
+        }
+    }
+
+    private static final class FreeList {
+
+        final Vehicle[] vehicles;
+        int size;
+
+        FreeList(int capacity) {
+            this.vehicles = new Vehicle[capacity];
+        }
+    }
+
+    // One stripe of the idle set : an open-addressing identity set in a flat array, so marking a vehicle allocates nothing.
+    // Guarded by its own monitor.
+    private static final class IdleStripe {
+
+        private Vehicle[] slots = new Vehicle[16];
+        private int size;
+
+        // Returns false when the vehicle is already in the set.
+        boolean add(Vehicle vehicle) {
+            if ((size + 1) * 2 > slots.length) {
+                grow();
+            }
+            int mask = slots.length - 1;
+            int i = home(vehicle, mask);
+            while (slots[i] != null) {
+                if (slots[i] == vehicle) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = vehicle;
+            size++;
+            return true;
+        }
+
+        void remove(Vehicle vehicle) {
+            int mask = slots.length - 1;
+            int i = home(vehicle, mask);
+            while (slots[i] != vehicle) {
+                if (slots[i] == null) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // Backward-shift deletion : pull later entries of the probe run into the gap, so lookups never need tombstones
+            int gap = i;
+            for (int j = (gap + 1) & mask; slots[j] != null; j = (j + 1) & mask) {
+                int wanted = home(slots[j], mask);
+                if (((j - wanted) & mask) >= ((j - gap) & mask)) {
+                    slots[gap] = slots[j];
+                    gap = j;
+                }
+            }
+            slots[gap] = null;
+            size--;
+        }
+
+        private void grow() {
+            Vehicle[] old = slots;
+            slots = new Vehicle[old.length * 2];
+            int mask = slots.length - 1;
+            for (Vehicle vehicle : old) {
+                if (vehicle != null) {
+                    int i = home(vehicle, mask);
+                    while (slots[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    slots[i] = vehicle;
+                }
+            }
+        }
+
+        // The low bits picked the stripe, so the slot comes from the higher ones.
+        private static int home(Vehicle vehicle, int mask) {
+            return (System.identityHashCode(vehicle) >>> 6) & mask;
+        }
+    }
+
+    private static final class LeakTracker extends WeakReference<Vehicle> {
+
+        final int key;
+        final Throwable leasedAt;
+
+        LeakTracker(Vehicle vehicle, int key, ReferenceQueue<Vehicle> queue) {
+            super(vehicle, queue);
+            this.key = key;
+            this.leasedAt = new Throwable("Vehicle leased here was never released");
+        }
+    }
+
+    private final VehicleFactory delegate;
+    private final int perThreadCapacity;
+    private final int maxSharedBatches;
+    private final int leakSampleRate;
+    private final ThreadLocal<FreeList> freeLists;
+    private final AtomicReference<Batch> shared = new AtomicReference<>();
+    private final AtomicInteger sharedBatches = new AtomicInteger();
+    private final Map<Integer, LeakTracker> tracked = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Vehicle> collected = new ReferenceQueue<>();
+    private final IdleStripe[] idle = new IdleStripe[IDLE_STRIPES];    // Striped by identity hash, so threads rarely share a lock
+
+    private final LongAdder leases = new LongAdder();
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    PooledVehicleFactory(VehicleFactory delegate, int perThreadCapacity, int maxSharedBatches, int leakSampleRate) {
+        if (perThreadCapacity < 2 || maxSharedBatches < 0 || leakSampleRate < 0) {
+            throw new IllegalArgumentException("Per-thread capacity must be at least 2, shared batches and sample rate not negative");
+        }
+        this.delegate = delegate;
+        this.perThreadCapacity = perThreadCapacity;
+        this.maxSharedBatches = maxSharedBatches;
+        this.leakSampleRate = leakSampleRate;
+        this.freeLists = ThreadLocal.withInitial(() -> new FreeList(perThreadCapacity));
+        for (int i = 0; i < IDLE_STRIPES; i++) {
+            idle[i] = new IdleStripe();
+        }
+    }
+
+    // Not pooled : the caller owns the vehicle.
+    @Override
+    public Vehicle createVehicle() {
+        return delegate.createVehicle();
+    }
+
+    public Vehicle lease() {
+        leases.increment();
+        FreeList local = freeLists.get();
+        Vehicle vehicle;
+        if (local.size > 0) {
+            vehicle = local.vehicles[--local.size];
+            local.vehicles[local.size] = null;
+            localHits.increment();
+            markLeased(vehicle);
+        } else if (refill(local)) {
+            vehicle = local.vehicles[--local.size];
+            local.vehicles[local.size] = null;
+            sharedHits.increment();
+            markLeased(vehicle);
+        } else {
+            vehicle = delegate.createVehicle();
+        }
+        if (leakSampleRate > 0 && ThreadLocalRandom.current().nextInt(leakSampleRate) == 0) {
+            track(vehicle);
+        }
+        return vehicle;
+    }
+
+    // Throws IllegalArgumentException when the vehicle is already back in the pool and not leased again since.
+    public void release(Vehicle vehicle) {
+        if (vehicle == null) {
+            throw new IllegalArgumentException("Vehicle must not be null");
+        }
+        if (!markIdle(vehicle)) {
+            throw new IllegalArgumentException("Vehicle was already released: " + vehicle);
+        }
+        releases.increment();
+        if (!tracked.isEmpty()) {
+            LeakTracker tracker = tracked.get(System.identityHashCode(vehicle));
+            if (tracker != null && tracker.get() == vehicle && tracked.remove(tracker.key, tracker)) {
+                tracker.clear();
+            }
+        }
+        try {
+            vehicle.reset();
+        } catch (RuntimeException e) {
+            discarded.increment();  // Not safe to hand out again
+            markLeased(vehicle);    // Out of the pool for good
+            return;
+        }
+        FreeList local = freeLists.get();
+        if (local.size == perThreadCapacity) {
+            spill(local);
+        }
+        local.vehicles[local.size++] = vehicle;
+    }
+
+    // Reports sampled vehicles that were collected without being released. Returns how many were found by this call.
+    public int detectLeaks() {
+        int found = 0;
+        Reference<? extends Vehicle> reference;
+        while ((reference = collected.poll()) != null) {
+            LeakTracker tracker = (LeakTracker) reference;
+            if (tracked.remove(tracker.key, tracker)) {
+                found++;
+                leaks.increment();
+                if (found == 1) {
+                    System.err.println("Vehicle pool leak: " + tracker.leasedAt.getMessage());
+                    for (StackTraceElement frame : tracker.leasedAt.getStackTrace()) {
+                        System.err.println("\tat " + frame);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    // Share of leases served from the pool instead of the delegate factory.
+    public double hitRatio() {
+        long total = leases.sum();
+        return total == 0 ? 0 : (double) (localHits.sum() + sharedHits.sum()) / total;
+    }
+
+    // Leased and not released yet
+    public long outstanding() {
+        return leases.sum() - releases.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d leases (%d local hits, %d shared hits, hit ratio %.1f%%), %d releases, %d discarded, %d outstanding, %d leaks",
+                leases.sum(), localHits.sum(), sharedHits.sum(), hitRatio() * 100, releases.sum(), discarded.sum(), outstanding(), leaks.sum());
+    }
+
+    // Moves the older half of a full thread list to the shared stack, or lets it go if the stack is full.
+    private void spill(FreeList local) {
+        int count = local.size / 2;
+        if (sharedBatches.incrementAndGet() > maxSharedBatches) {
+            sharedBatches.decrementAndGet();
+            discarded.add(count);
+            for (int i = 0; i < count; i++) {
+                markLeased(local.vehicles[i]);     // Dropped, no longer in the pool
+            }
+        } else {
+            Vehicle[] batch = Arrays.copyOf(local.vehicles, count);
+            Batch head;
+            do {
+                head = shared.get();
+            } while (!shared.compareAndSet(head, new Batch(batch, head)));
+        }
+        System.arraycopy(local.vehicles, count, local.vehicles, 0, local.size - count);
+        Arrays.fill(local.vehicles, local.size - count, local.size, null);
+        local.size -= count;
+    }
+
+    // Takes one batch from the shared stack. Popped batches are never pushed again, so there is no ABA problem.
+    private boolean refill(FreeList local) {
+        Batch head;
+        do {
+            head = shared.get();
+            if (head == null) {
+                return false;
+            }
+        } while (!shared.compareAndSet(head, head.next));
+        sharedBatches.decrementAndGet();
+        System.arraycopy(head.vehicles, 0, local.vehicles, 0, head.vehicles.length);
+        local.size = head.vehicles.length;
+        return true;
+    }
+
+    // Returns false when the vehicle is already in the pool.
+    private boolean markIdle(Vehicle vehicle) {
+        IdleStripe stripe = stripeOf(vehicle);
+        synchronized (stripe) {
+            return stripe.add(vehicle);
+        }
+    }
+
+    private void markLeased(Vehicle vehicle) {
+        IdleStripe stripe = stripeOf(vehicle);
+        synchronized (stripe) {
+            stripe.remove(vehicle);
+        }
+    }
+
+    private IdleStripe stripeOf(Vehicle vehicle) {
+        int hash = System.identityHashCode(vehicle);
+        return idle[hash & (IDLE_STRIPES - 1)];
+    }
+
+    // One tracker per identity hash : on the rare collision the lease just isn't sampled.
+    private void track(Vehicle vehicle) {
+        int key = System.identityHashCode(vehicle);
+        tracked.putIfAbsent(key, new LeakTracker(vehicle, key, collected));
+    }
+}
+
+// Production line : orders go through a create, a start-check and a drive-check stage. Each stage has its own workers and
+// feeds the next through a bounded queue, so a slow stage fills the queue in front of it, which blocks the stage before
+// it, and so on up to submit() : backpressure instead of unbounded buffering. Per-stage metrics show which stage is the
+// bottleneck.
+class AssemblyPipeline {
+
+    // One vehicle order moving through the line
+    private static final class Job {
+
+        final long orderedAt;
+        long enqueuedAt;
+        Vehicle vehicle;
+
+        Job(long orderedAt) {
+            this.orderedAt = orderedAt;
+        }
+    }
+
+    private static final Job END = new Job(0);     // Passed down the line on close, one per worker
+
+    // Receives every order a stage failed on. The vehicle is null when the create stage failed.
+    interface FailureSink {
+
+        void failed(String stage, Vehicle vehicle, RuntimeException cause);
+    }
+
+    static final class StageStats {
+
+        final String name;
+        final int workers;
+        final int capacity;
+        final long processed;
+        final long failed;
+        final double throughputPerSecond;
+        final double averageServiceMicros;
+        final double maxServiceMicros;
+        final double averageWaitMicros;
+        final double averageOccupancy;  // Share of the input queue in use, sampled on every take
+        final double utilization;       // Share of the workers' time spent working
+
+        StageStats(String name, int workers, int capacity, long processed, long failed, double throughputPerSecond,
+                double averageServiceMicros, double maxServiceMicros, double averageWaitMicros, double averageOccupancy,
+                double utilization) {
+            this.name = name;
+            this.workers = workers;
+            this.capacity = capacity;
+            this.processed = processed;
+            this.failed = failed;
+            this.throughputPerSecond = throughputPerSecond;
+            this.averageServiceMicros = averageServiceMicros;
+            this.maxServiceMicros = maxServiceMicros;
+            this.averageWaitMicros = averageWaitMicros;
+            this.averageOccupancy = averageOccupancy;
+            this.utilization = utilization;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-6s x%d: %,8d done, %d failed, %,9.0f/s, service avg %7.1f us max %8.1f us, wait avg %8.1f us, queue %5.1f%% full, busy %5.1f%%",
+                    name, workers, processed, failed, throughputPerSecond, averageServiceMicros, maxServiceMicros,
+                    averageWaitMicros, averageOccupancy * 100, utilization * 100);
+        }
+    }
+
+    private final class Stage {
+
+        final String name;
+        final BlockingQueue<Job> input;
+        final BlockingQueue<Job> output;      // Null for the last stage
+        final Consumer<Job> work;
+        final Thread[] workers;
+        final AtomicInteger running;
+        final LongAdder processed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder serviceNanos = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAdder occupancySamples = new LongAdder();
+        final AtomicLong maxServiceNanos = new AtomicLong();
+
+        Stage(String name, int workerCount, BlockingQueue<Job> input, BlockingQueue<Job> output, Consumer<Job> work) {
+            if (workerCount <= 0) {
+                throw new IllegalArgumentException("Stage " + name + " needs at least one worker");
+            }
+            this.name = name;
+            this.input = input;
+            this.output = output;
+            this.work = work;
+            this.workers = new Thread[workerCount];
+            this.running = new AtomicInteger(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                workers[i] = new Thread(this::runWorker, "assembly-" + name + "-" + i);
+                workers[i].setDaemon(true);
+            }
+        }
+
+        private void runWorker() {
+            try {
+                while (true) {
+                    occupancySamples.add(input.size());
+                    Job job = input.take();
+                    if (job == END) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    waitNanos.add(start - job.enqueuedAt);
+                    try {
+                        work.accept(job);
+                    } catch (RuntimeException e) {
+                        failed.increment();
+                        failed(name, job.vehicle, e);
+                        continue;
+                    } finally {
+                        long service = System.nanoTime() - start;
+                        serviceNanos.add(service);
+                        maxServiceNanos.accumulateAndGet(service, Math::max);
+                    }
+                    processed.increment();
+                    if (output != null) {
+                        job.enqueuedAt = System.nanoTime();
+                        output.put(job);        // Blocks while the next stage is behind
+                    } else {
+                        completed(job);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // The last worker out tells the next stage, even when it was interrupted, so shutdown() never waits forever
+                if (running.decrementAndGet() == 0) {
+                    if (output != null) {
+                        for (int i = 0; i < next(this).workers.length; i++) {
+                            putQuietly(output, END);
+                        }
+                    } else {
+                        finished.countDown();
+                    }
+                }
+            }
+        }
+
+        StageStats stats(long elapsedNanos) {
+            long done = processed.sum();
+            long attempts = done + failed.sum();
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            int capacity = input.size() + input.remainingCapacity();
+            return new StageStats(name, workers.length, capacity, done, failed.sum(), done / seconds,
+                    attempts == 0 ? 0 : serviceNanos.sum() / 1e3 / attempts, maxServiceNanos.get() / 1e3,
+                    attempts == 0 ? 0 : waitNanos.sum() / 1e3 / attempts,
+                    attempts == 0 ? 0 : (double) occupancySamples.sum() / attempts / capacity,
+                    Math.min(1, serviceNanos.sum() / (double) Math.max(elapsedNanos, 1) / workers.length));
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final BlockingQueue<Job> orders;
+    private final Consumer<Vehicle> sink;
+    private final FailureSink failureSink;
+    private final AtomicReference<RuntimeException> firstFailure = new AtomicReference<>();    // Only used without a failure sink
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final long startedAt = System.nanoTime();
+    private volatile boolean closed;
+    private volatile long finishedAt;   // Stats stop the clock at shutdown
+
+    // workers : for the create, start and drive stages. sink receives every vehicle that passed all stages.
+    // Without a failure sink, shutdown() throws when any order failed.
+    AssemblyPipeline(VehicleFactory factory, int queueCapacity, int createWorkers, int startWorkers, int driveWorkers,
+            Consumer<Vehicle> sink, FailureSink failureSink) {
+        this.orders = new ArrayBlockingQueue<>(queueCapacity);
+        this.sink = sink;
+        this.failureSink = failureSink;
+        BlockingQueue<Job> started = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Job> driven = new ArrayBlockingQueue<>(queueCapacity);
+        stages.add(new Stage("create", createWorkers, orders, started, job -> job.vehicle = factory.createVehicle()));
+        stages.add(new Stage("start", startWorkers, started, driven, job -> job.vehicle.start()));
+        stages.add(new Stage("drive", driveWorkers, driven, null, job -> job.vehicle.drive()));
+        for (Stage stage : stages) {
+            for (Thread worker : stage.workers) {
+                worker.start();
+            }
+        }
+    }
+
+    // Orders one vehicle. Blocks while the line is full.
+    public void submit() throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+        Job job = new Job(System.nanoTime());
+        job.enqueuedAt = job.orderedAt;
+        orders.put(job);
+    }
+
+    // Orders one vehicle if the line has room right now.
+    public boolean trySubmit() {
+        if (closed) {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+        Job job = new Job(System.nanoTime());
+        job.enqueuedAt = job.orderedAt;
+        return orders.offer(job);
+    }
+
+    public long completed() {
+        return completed.sum();
+    }
+
+    public double averageLatencyMicros() {
+        long done = completed.sum();
+        return done == 0 ? 0 : totalLatencyNanos.sum() / 1e3 / done;
+    }
+
+    public List<StageStats> stats() {
+        long elapsed = (finishedAt != 0 ? finishedAt : System.nanoTime()) - startedAt;
+        List<StageStats> result = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            result.add(stage.stats(elapsed));
+        }
+        return result;
+    }
+
+    // The stage whose workers are busiest : adding workers there raises the line's throughput.
+    public String bottleneck() {
+        StageStats busiest = null;
+        for (StageStats stage : stats()) {
+            if (busiest == null || stage.utilization > busiest.utilization) {
+                busiest = stage;
+            }
+        }
+        return busiest.name;
+    }
+
+    // Lets every order already submitted finish, then stops the workers.
+    // Without a failure sink, throws IllegalStateException (caused by the first failure) when any order failed.
+    public void shutdown() throws InterruptedException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (int i = 0; i < stages.get(0).workers.length; i++) {
+            orders.put(END);
+        }
+        finished.await();
+        finishedAt = System.nanoTime();
+        RuntimeException failure = firstFailure.get();
+        if (failure != null) {
+            long failures = 0;
+            for (Stage stage : stages) {
+                failures += stage.failed.sum();
+            }
+            throw new IllegalStateException(failures + " orders failed on the assembly line", failure);
+        }
+    }
+
+    private void failed(String stage, Vehicle vehicle, RuntimeException cause) {
+        if (failureSink == null) {
+            firstFailure.compareAndSet(null, cause);
+            return;
+        }
+        try {
+            failureSink.failed(stage, vehicle, cause);
+        } catch (RuntimeException e) {
+            System.err.println("Assembly failure sink failed: " + e);     // Must not take the worker down
+        }
+    }
+
+    private void completed(Job job) {
+        totalLatencyNanos.add(System.nanoTime() - job.orderedAt);
+        completed.increment();
+        if (sink != null) {
+            sink.accept(job.vehicle);
+        }
+    }
+
+    private Stage next(Stage stage) {
+        return stages.get(stages.indexOf(stage) + 1);
+    }
+
+    private static void putQuietly(BlockingQueue<Job> queue, Job job) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(job);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// Lookup cost of the old switch on type.toLowerCase() against the registry table.
+// Run with : java Solution bench
+class VehicleLookupBenchmark {
+
+    private static final String[] TYPES = { "Sedan", "SUV", "truck", "SEDAN", "suv", "Truck" };
+    private static final int ITERATIONS = 20_000_000;
+
+    static void run() {
+        VehicleRegistry registry = VehicleRegistry.standard();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < 3; round++) {
+            long sink = 0;
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += switchLookup(TYPES[i % TYPES.length]).hashCode();
+            }
+            long switchNanos = System.nanoTime() - start;
+            long switchBytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+
+            bytes = threads.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += registry.factoryFor(TYPES[i % TYPES.length]).hashCode();
+            }
+            long registryNanos = System.nanoTime() - start;
+            long registryBytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+            System.out.printf("switch on toLowerCase(): %5.1f ns, %5.1f bytes per lookup | registry: %5.1f ns, %5.1f bytes per lookup  (%d)%n",
+                    (double) switchNanos / ITERATIONS, (double) switchBytes / ITERATIONS,
+                    (double) registryNanos / ITERATIONS, (double) registryBytes / ITERATIONS, sink);
+        }
+    }
+
+    private static final VehicleFactory SEDAN = new SedanFactory();
+    private static final VehicleFactory SUV = new SUVFactory();
+    private static final VehicleFactory TRUCK = new TruckFactory();
+
+    private static VehicleFactory switchLookup(String type) {
+        switch (type.toLowerCase()) {
+            case "sedan":
+                return SEDAN;
+            case "suv":
+                return SUV;
+            case "truck":
+                return TRUCK;
+            default:
+                throw new IllegalArgumentException("Unknown vehicle type: " + type);
+        }
+    }
+}
+
+// Allocation and time per vehicle, creating a new one each time against leasing and releasing a pooled one.
+class VehiclePoolBenchmark {
+
+    private static final int ITERATIONS = 20_000_000;
+
+    static void run() {
+        PooledVehicleFactory pool = new PooledVehicleFactory(new SedanFactory(), 64, 1_024, 0);
+        SedanFactory factory = new SedanFactory();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Vehicle[] inFlight = new Vehicle[16];   // A few vehicles alive at a time, like a simulation step
+        for (int round = 0; round < 3; round++) {
+            long sink = 0;
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                inFlight[i & 15] = factory.createVehicle();
+                sink += inFlight[i & 15].hashCode();
+            }
+            long newNanos = System.nanoTime() - start;
+            long newBytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+
+            Arrays.fill(inFlight, null);
+            bytes = threads.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (inFlight[i & 15] != null) {
+                    pool.release(inFlight[i & 15]);
+                }
+                inFlight[i & 15] = pool.lease();
+                sink += inFlight[i & 15].hashCode();
+            }
+            long pooledNanos = System.nanoTime() - start;
+            long pooledBytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+            System.out.printf("new: %5.1f ns, %5.1f bytes per vehicle | pooled: %5.1f ns, %5.1f bytes per vehicle  (%d)%n",
+                    (double) newNanos / ITERATIONS, (double) newBytes / ITERATIONS,
+                    (double) pooledNanos / ITERATIONS, (double) pooledBytes / ITERATIONS, sink);
+        }
+        System.out.println("Pool: " + pool);
+    }
+}
+
 class Solution {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+
+        if (args.length > 0 && args[0].equals("bench")) {
+            VehicleLookupBenchmark.run();
+            VehiclePoolBenchmark.run();
+            return;
+        }
+        if (args.length > 1 && args[0].equals("index")) {
+            VehicleRegistry.writeIndex(Thread.currentThread().getContextClassLoader(), Path.of(args[1]));
+            return;
+        }
         
         // Without Factory Pattern
         Vehicle sedan = new Sedan();
@@ -145,5 +1161,65 @@ class Solution {
         Vehicle truckVehicle = new TruckFactory().createVehicle();
         truckVehicle.start();
         truckVehicle.drive();
+
+        // With a factory registry : types are looked up by name, any case, and new types plug in without editing it
+        VehicleRegistry registry = VehicleRegistry.standard();
+        Vehicle registrySUV = registry.createVehicle("SUV");
+        registrySUV.start();
+        registrySUV.drive();
+        System.out.println("Types: " + registry.types() + ", truck factory created yet: " + registry.isLoaded("Truck"));
+
+        // With a pool : vehicles are leased and released instead of created and dropped
+        PooledVehicleFactory pool = new PooledVehicleFactory(registry.factoryFor("truck"), 32, 64, 1);
+        for (int step = 0; step < 1_000; step++) {
+            Vehicle pooledTruck = pool.lease();
+            pool.release(pooledTruck);
+        }
+        for (int i = 0; i < 3; i++) {
+            pool.lease();       // Never released
+        }
+        System.gc();
+        try {
+            Thread.sleep(100);  // Let the collector enqueue the lost vehicles
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.detectLeaks();
+        System.out.println("Pool: " + pool);
+
+        // With an assembly line : create, start and drive checks run as stages with their own workers. The simulated
+        // start check is the slow one, so its queue fills up and the line runs at its pace.
+        VehicleFactory testFactory = () -> new Vehicle() {
+
+            @Override
+            public void start() {
+                simulateWork(200_000);
+            }
+
+            @Override
+            public void drive() {
+                simulateWork(50_000);
+            }
+        };
+        AssemblyPipeline line = new AssemblyPipeline(testFactory, 64, 1, 2, 1, null,
+                (stage, vehicle, cause) -> System.err.println("Order failed in " + stage + ": " + cause));
+        try {
+            for (int i = 0; i < 5_000; i++) {
+                line.submit();
+            }
+            line.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        line.stats().forEach(System.out::println);
+        System.out.printf("Assembled %d vehicles, average %.1f us from order to done, bottleneck: %s%n",
+                line.completed(), line.averageLatencyMicros(), line.bottleneck());
+    }
+
+    private static void simulateWork(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
     }
 }
\ No newline at end of file
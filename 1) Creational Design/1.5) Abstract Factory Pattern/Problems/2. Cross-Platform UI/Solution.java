@@ -1,3 +1,16 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 enum OS { WINDOWS, MAC, LINUX }
 
 interface Button {
@@ -72,11 +85,774 @@ class FactoryProvider {
     }
 }
 
+enum UIEventType { CLICK, HOVER, CHECK, UNCHECK }
+
+record UIEvent(Object widget, UIEventType type) {
+}
+
+// Single-threaded event loop for widgets made by any UIFactory. Events can be posted from any thread; they are queued and
+// handled once per frame on the loop thread, so widgets never need to be thread-safe.
+// Within a frame, redundant events are coalesced before dispatch :
+// - Hovers on a widget collapse into one : a hover stream of hundreds of events per second becomes one per frame.
+// - Checks and unchecks on a checkbox collapse into the last one, the final state.
+// - Clicks are never dropped.
+// The surviving events of a frame are handed to the dispatcher as one batch, in the order they were posted : a collapsed
+// hover or check takes the place of its last occurrence, so click A, click B, click A stays in that order.
+class UIEventLoop {
+
+    // Where the events of one widget that survive the current frame are
+    private static final class FrameState {
+
+        int lastHover = -1;
+        int lastToggle = -1;    // Last check or uncheck
+    }
+
+    private final Queue<UIEvent> pending = new ConcurrentLinkedQueue<>();
+    private final Consumer<List<UIEvent>> dispatcher;
+    private final Map<Object, FrameState> frame = new IdentityHashMap<>();     // Loop thread only
+    private final List<UIEvent> received = new ArrayList<>();                  // This frame's events, in posted order
+    private final List<FrameState> receivedStates = new ArrayList<>();         // The widget state of each of them
+    private final List<UIEvent> batch = new ArrayList<>();
+    private volatile boolean running;
+    private Thread loopThread;
+
+    private long posted;        // Updated on the loop thread as events are drained
+    private long dispatched;
+    private long frames;
+    private long frameNanos;    // Frames that had events only, so idle frames don't inflate the per-event overhead
+    private long handlerNanos;
+    private long handlerFailures;
+
+    // Calls the widget methods, one batch per frame.
+    UIEventLoop() {
+        this(UIEventLoop::invokeWidgets);
+    }
+
+    UIEventLoop(Consumer<List<UIEvent>> dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public void hover(Button button) {
+        post(button, UIEventType.HOVER);
+    }
+
+    public void click(Button button) {
+        post(button, UIEventType.CLICK);
+    }
+
+    public void check(Checkbox checkbox) {
+        post(checkbox, UIEventType.CHECK);
+    }
+
+    public void uncheck(Checkbox checkbox) {
+        post(checkbox, UIEventType.UNCHECK);
+    }
+
+    private void post(Object widget, UIEventType type) {
+        if (widget == null) {
+            throw new IllegalArgumentException("Widget must not be null");
+        }
+        pending.add(new UIEvent(widget, type));
+    }
+
+    // Runs frames on a daemon thread every frameIntervalNanos until stop().
+    public synchronized void start(long frameIntervalNanos) {
+        if (running) {
+            throw new IllegalStateException("Event loop already running");
+        }
+        running = true;
+        loopThread = new Thread(() -> {
+            try {
+                long nextFrame = System.nanoTime();
+                while (running) {
+                    runFrame();
+                    nextFrame += frameIntervalNanos;
+                    long delay = nextFrame - System.nanoTime();
+                    if (delay > 0) {
+                        LockSupport.parkNanos(delay);
+                    } else {
+                        nextFrame = System.nanoTime();  // Running late : don't try to catch up with a burst of frames
+                    }
+                }
+                runFrame();     // Whatever was posted before stop()
+            } finally {
+                running = false;    // If the loop dies anyway (an Error), start() can start a new one
+            }
+        }, "ui-event-loop");
+        loopThread.setDaemon(true);
+        loopThread.start();
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        loopThread.join();
+    }
+
+    // Drains, coalesces and dispatches one frame. Must only be called from one thread : the loop thread, or the caller
+    // when no loop thread is started (headless use).
+    // A handler that throws loses the rest of that frame's batch, but the loop keeps running.
+    public void runFrame() {
+        long start = System.nanoTime();
+        UIEvent event;
+        while ((event = pending.poll()) != null) {
+            FrameState state = frame.get(event.widget());
+            if (state == null) {
+                state = new FrameState();
+                frame.put(event.widget(), state);
+            }
+            switch (event.type()) {
+                case HOVER -> state.lastHover = received.size();
+                case CHECK, UNCHECK -> state.lastToggle = received.size();
+                case CLICK -> { }
+            }
+            received.add(event);
+            receivedStates.add(state);
+        }
+        long drained = received.size();
+        for (int i = 0; i < received.size(); i++) {
+            UIEvent next = received.get(i);
+            FrameState state = receivedStates.get(i);
+            boolean kept = switch (next.type()) {
+                case CLICK -> true;
+                case HOVER -> state.lastHover == i;
+                case CHECK, UNCHECK -> state.lastToggle == i;
+            };
+            if (kept) {
+                batch.add(next);
+            }
+        }
+        frame.clear();
+        received.clear();
+        receivedStates.clear();
+        frames++;
+        posted += drained;
+        long handlerStart = System.nanoTime();
+        if (!batch.isEmpty()) {
+            dispatched += batch.size();
+            try {
+                dispatcher.accept(batch);
+            } catch (RuntimeException e) {
+                handlerFailures++;
+                System.err.println("UI event handler failed: " + e);
+            } finally {
+                batch.clear();
+            }
+        }
+        if (drained > 0) {
+            long end = System.nanoTime();
+            handlerNanos += end - handlerStart;
+            frameNanos += end - start;
+        }
+    }
+
+    // Share of posted events that were coalesced away.
+    public double coalescingRatio() {
+        return posted == 0 ? 0 : 1 - (double) dispatched / posted;
+    }
+
+    // Loop time per posted event, not counting the handlers themselves or frames that found no events.
+    public double overheadNanosPerEvent() {
+        return posted == 0 ? 0 : (double) (frameNanos - handlerNanos) / posted;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d frames, %d events posted, %d dispatched (%.1f%% coalesced), loop overhead %.1f ns per event, %d handler failures",
+                frames, posted, dispatched, coalescingRatio() * 100, overheadNanosPerEvent(), handlerFailures);
+    }
+
+    private static void invokeWidgets(List<UIEvent> events) {
+        for (UIEvent event : events) {
+            switch (event.type()) {
+                case HOVER -> ((Button) event.widget()).hover();
+                case CLICK -> ((Button) event.widget()).click();
+                case CHECK -> ((Checkbox) event.widget()).check();
+                case UNCHECK -> ((Checkbox) event.widget()).uncheck();
+            }
+        }
+    }
+}
+
+record Rect(int x, int y, int width, int height) {
+
+    int right() {
+        return x + width;
+    }
+
+    int bottom() {
+        return y + height;
+    }
+
+    long area() {
+        return (long) width * height;
+    }
+
+    boolean intersects(Rect other) {
+        return x < other.right() && other.x < right() && y < other.bottom() && other.y < bottom();
+    }
+
+    // Overlapping or sharing an edge.
+    boolean touches(Rect other) {
+        return x <= other.right() && other.x <= right() && y <= other.bottom() && other.y <= bottom();
+    }
+
+    Rect union(Rect other) {
+        int minX = Math.min(x, other.x);
+        int minY = Math.min(y, other.y);
+        return new Rect(minX, minY, Math.max(right(), other.right()) - minX, Math.max(bottom(), other.bottom()) - minY);
+    }
+
+    Rect intersection(Rect other) {
+        int minX = Math.max(x, other.x);
+        int minY = Math.max(y, other.y);
+        return new Rect(minX, minY, Math.max(0, Math.min(right(), other.right()) - minX), Math.max(0, Math.min(bottom(), other.bottom()) - minY));
+    }
+}
+
+// In-memory ARGB framebuffer, so rendering runs and can be checked without a display.
+final class PixelBuffer {
+
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    PixelBuffer(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    Rect bounds() {
+        return new Rect(0, 0, width, height);
+    }
+
+    // Fills rect, limited to clip.
+    void fill(Rect rect, Rect clip, int color) {
+        Rect area = rect.intersection(clip).intersection(bounds());
+        for (int row = area.y(); row < area.bottom(); row++) {
+            int start = row * width + area.x();
+            Arrays.fill(pixels, start, start + area.width(), color);
+        }
+    }
+
+    void outline(Rect rect, Rect clip, int color) {
+        fill(new Rect(rect.x(), rect.y(), rect.width(), 1), clip, color);
+        fill(new Rect(rect.x(), rect.bottom() - 1, rect.width(), 1), clip, color);
+        fill(new Rect(rect.x(), rect.y(), 1, rect.height()), clip, color);
+        fill(new Rect(rect.right() - 1, rect.y(), 1, rect.height()), clip, color);
+    }
+}
+
+// Node of the retained widget tree. A node draws itself over its bounds. Changing its state marks it dirty, and marks
+// its ancestors as having a dirty descendant, so a frame only walks the subtrees that changed.
+abstract class WidgetNode {
+
+    final Rect bounds;
+    WidgetNode parent;
+    final List<WidgetNode> children = new ArrayList<>();
+    private boolean dirty = true;
+    private boolean dirtyBelow;
+    private int attachments;    // On a root : children attached anywhere below it, so trees know when to re-index
+
+    WidgetNode(Rect bounds) {
+        this.bounds = bounds;
+    }
+
+    // Called by containers. The new child is dirty, so the next frame paints it and its ancestors know where to look.
+    void attach(WidgetNode child) {
+        child.parent = this;
+        children.add(child);
+        child.markDirty();
+        root().attachments++;
+    }
+
+    WidgetNode root() {
+        WidgetNode node = this;
+        while (node.parent != null) {
+            node = node.parent;
+        }
+        return node;
+    }
+
+    int attachments() {
+        return attachments;
+    }
+
+    abstract void paint(PixelBuffer buffer, Rect clip);
+
+    // The widget created by the UIFactory, if the node stands for one
+    Object widget() {
+        return null;
+    }
+
+    void markDirty() {
+        dirty = true;
+        for (WidgetNode node = parent; node != null && !node.dirtyBelow; node = node.parent) {
+            node.dirtyBelow = true;
+        }
+    }
+
+    // Adds the bounds of dirty nodes to damage and clears the flags. A dirty node covers its whole subtree.
+    void collectDamage(List<Rect> damage) {
+        if (dirty) {
+            damage.add(bounds);
+            clearFlags();
+        } else if (dirtyBelow) {
+            dirtyBelow = false;
+            for (WidgetNode child : children) {
+                child.collectDamage(damage);
+            }
+        }
+    }
+
+    // The whole subtree : the node's repaint covers every descendant, whatever its own flags say.
+    private void clearFlags() {
+        dirty = false;
+        dirtyBelow = false;
+        for (WidgetNode child : children) {
+            child.clearFlags();
+        }
+    }
+
+    // Painter's order inside clip : this node, then the children that overlap it.
+    void render(PixelBuffer buffer, Rect clip) {
+        paint(buffer, clip);
+        for (WidgetNode child : children) {
+            if (child.bounds.intersects(clip)) {
+                child.render(buffer, clip);
+            }
+        }
+    }
+}
+
+// Container laying its children out in a column.
+class PanelNode extends WidgetNode {
+
+    private static final int PADDING = 4;
+
+    private final int background;
+    private int nextY;
+    private int nextX;
+    private int columnWidth;
+    private int widestChild;
+
+    PanelNode(Rect bounds, int background) {
+        super(bounds);
+        this.background = background;
+        this.nextX = bounds.x() + PADDING;
+        this.nextY = bounds.y() + PADDING;
+    }
+
+    // Places a child of the given size below the previous one, wrapping into a new column when the panel is full.
+    <T extends WidgetNode> T add(Function<Rect, T> node, int width, int height) {
+        if (nextY + height > bounds.bottom() - PADDING) {
+            nextX += columnWidth + PADDING;
+            nextY = bounds.y() + PADDING;
+            columnWidth = 0;
+        }
+        if (nextX + width > bounds.right() - PADDING || height > bounds.height() - 2 * PADDING) {
+            throw new IllegalArgumentException("Panel is full");
+        }
+        T child = node.apply(new Rect(nextX, nextY, width, height));
+        attach(child);
+        nextY += height + PADDING;
+        columnWidth = Math.max(columnWidth, width);
+        widestChild = Math.max(widestChild, width);
+        return child;
+    }
+
+    @Override
+    void paint(PixelBuffer buffer, Rect clip) {
+        buffer.fill(bounds, clip, background);
+    }
+
+    // Children are laid out column by column, so their x never decreases : only the columns under clip are visited.
+    @Override
+    void render(PixelBuffer buffer, Rect clip) {
+        paint(buffer, clip);
+        int low = 0;
+        int high = children.size();
+        int minX = clip.x() - widestChild;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (children.get(middle).bounds.x() < minX) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < children.size(); i++) {
+            WidgetNode child = children.get(i);
+            if (child.bounds.x() >= clip.right()) {
+                break;
+            }
+            if (child.bounds.intersects(clip)) {
+                child.render(buffer, clip);
+            }
+        }
+    }
+}
+
+class ButtonNode extends WidgetNode {
+
+    private final Button button;
+    private boolean hovered;
+
+    ButtonNode(Rect bounds, Button button) {
+        super(bounds);
+        this.button = button;
+    }
+
+    void setHovered(boolean hovered) {
+        if (this.hovered != hovered) {
+            this.hovered = hovered;
+            markDirty();
+        }
+    }
+
+    @Override
+    Object widget() {
+        return button;
+    }
+
+    @Override
+    void paint(PixelBuffer buffer, Rect clip) {
+        buffer.fill(bounds, clip, hovered ? 0xFFE5F1FB : 0xFFE1E1E1);
+        buffer.outline(bounds, clip, hovered ? 0xFF0078D7 : 0xFFADADAD);
+    }
+}
+
+class CheckboxNode extends WidgetNode {
+
+    private final Checkbox checkbox;
+    private boolean checked;
+
+    CheckboxNode(Rect bounds, Checkbox checkbox) {
+        super(bounds);
+        this.checkbox = checkbox;
+    }
+
+    void setChecked(boolean checked) {
+        if (this.checked != checked) {
+            this.checked = checked;
+            markDirty();
+        }
+    }
+
+    boolean isChecked() {
+        return checked;
+    }
+
+    @Override
+    Object widget() {
+        return checkbox;
+    }
+
+    @Override
+    void paint(PixelBuffer buffer, Rect clip) {
+        buffer.fill(bounds, clip, 0xFFFFFFFF);
+        buffer.outline(bounds, clip, 0xFF333333);
+        if (checked) {
+            buffer.fill(new Rect(bounds.x() + 3, bounds.y() + 3, bounds.width() - 6, bounds.height() - 6), clip, 0xFF0078D7);
+        }
+    }
+}
+
+// Retained tree over a pixel buffer. renderFrame() repaints only the damage since the last frame : the bounds of dirty
+// nodes, merged into a few regions so that neighbours are painted in one pass, and each region is painted by walking
+// only the nodes that overlap it.
+class WidgetTree {
+
+    private static final int MAX_REGIONS = 8;
+    private static final int PAIRWISE_MERGE_BELOW = 32;    // The cheapest-pair search is cubic, so it only runs on a few regions
+
+    private final WidgetNode root;
+    private final PixelBuffer buffer;
+    private final Map<Object, WidgetNode> nodesByWidget = new IdentityHashMap<>();
+    private ButtonNode hovered;
+    private int indexedAttachments;
+
+    private long frames;
+    private long regionsPainted;
+    private long pixelsPainted;
+
+    WidgetTree(WidgetNode root, PixelBuffer buffer) {
+        this.root = root;
+        this.buffer = buffer;
+        reindex();
+    }
+
+    // Nodes attached since the last index are picked up before the next events are applied.
+    private void reindex() {
+        nodesByWidget.clear();
+        index(root);
+        indexedAttachments = root.attachments();
+    }
+
+    private void index(WidgetNode node) {
+        if (node.widget() != null) {
+            nodesByWidget.put(node.widget(), node);
+        }
+        node.children.forEach(this::index);
+    }
+
+    // Turns loop events into node state, e.g. as the dispatcher of a UIEventLoop.
+    public void apply(List<UIEvent> events) {
+        if (root.attachments() != indexedAttachments) {
+            reindex();
+        }
+        for (UIEvent event : events) {
+            WidgetNode node = nodesByWidget.get(event.widget());
+            if (node instanceof ButtonNode button && event.type() == UIEventType.HOVER) {
+                if (hovered != null && hovered != button) {
+                    hovered.setHovered(false);
+                }
+                button.setHovered(true);
+                hovered = button;
+            } else if (node instanceof CheckboxNode checkbox && event.type() != UIEventType.HOVER) {
+                checkbox.setChecked(event.type() == UIEventType.CHECK);
+            }
+        }
+    }
+
+    // Returns the regions repainted.
+    public List<Rect> renderFrame() {
+        List<Rect> damage = new ArrayList<>();
+        root.collectDamage(damage);
+        List<Rect> regions = merge(damage);
+        for (Rect region : regions) {
+            Rect clip = region.intersection(buffer.bounds());
+            if (clip.area() > 0 && root.bounds.intersects(clip)) {
+                root.render(buffer, clip);
+                pixelsPainted += clip.area();
+            }
+        }
+        frames++;
+        regionsPainted += regions.size();
+        return regions;
+    }
+
+    // Repaints everything, whatever is dirty. For comparison and for a first frame.
+    public void renderAll() {
+        root.render(buffer, buffer.bounds());
+    }
+
+    // Cost grows close to linearly with the damage :
+    // - One sweep from left to right merges rectangles that overlap or touch with nothing wasted. Only the regions that
+    //   reach the sweep line are compared, the ones that end left of it can't touch anything later.
+    // - While many regions are left, neighbours along a Z-order curve, which keeps nearby regions next to each other,
+    //   are merged in pairs.
+    // - The last few are merged cheapest pair first until at most MAX_REGIONS are left.
+    static List<Rect> merge(List<Rect> damage) {
+        List<Rect> sorted = new ArrayList<>(damage);
+        sorted.sort(Comparator.comparingInt(Rect::x));
+        List<Rect> regions = new ArrayList<>();
+        List<Rect> active = new ArrayList<>();
+        for (Rect rect : sorted) {
+            int kept = 0;
+            for (Rect region : active) {
+                if (region.right() < rect.x()) {
+                    regions.add(region);
+                } else {
+                    active.set(kept++, region);
+                }
+            }
+            active.subList(kept, active.size()).clear();
+            Rect current = rect;
+            for (int i = 0; i < active.size(); i++) {
+                if (current.touches(active.get(i)) && waste(current, active.get(i)) <= 0) {
+                    current = current.union(active.get(i));
+                    active.set(i, active.get(active.size() - 1));
+                    active.remove(active.size() - 1);
+                    i = -1;     // The grown region may now absorb one that was checked already
+                }
+            }
+            active.add(current);
+        }
+        regions.addAll(active);
+
+        while (regions.size() > PAIRWISE_MERGE_BELOW) {
+            regions.sort(Comparator.comparingLong(WidgetTree::zOrder));
+            List<Rect> paired = new ArrayList<>(regions.size() / 2 + 1);
+            for (int i = 0; i < regions.size(); i += 2) {
+                paired.add(i + 1 < regions.size() ? regions.get(i).union(regions.get(i + 1)) : regions.get(i));
+            }
+            regions = paired;
+        }
+        while (regions.size() > MAX_REGIONS) {
+            int bestI = 0;
+            int bestJ = 1;
+            long bestWaste = Long.MAX_VALUE;
+            for (int i = 0; i < regions.size(); i++) {
+                for (int j = i + 1; j < regions.size(); j++) {
+                    long waste = waste(regions.get(i), regions.get(j));
+                    if (waste < bestWaste) {
+                        bestWaste = waste;
+                        bestI = i;
+                        bestJ = j;
+                    }
+                }
+            }
+            regions.set(bestI, regions.get(bestI).union(regions.remove(bestJ)));
+        }
+        if (regions.size() > 1) {     // Heavy scattered damage : overlapping regions could add up to more than their bounds
+            Rect all = regions.get(0);
+            long area = 0;
+            for (Rect region : regions) {
+                all = all.union(region);
+                area += region.area();
+            }
+            if (area >= all.area()) {
+                return List.of(all);
+            }
+        }
+        return regions;
+    }
+
+    // Position of the rectangle's centre along a Z-order curve : the bits of x and y interleaved.
+    private static long zOrder(Rect rect) {
+        return spreadBits(Math.max(0, rect.x() + rect.width() / 2)) | spreadBits(Math.max(0, rect.y() + rect.height() / 2)) << 1;
+    }
+
+    private static long spreadBits(int value) {
+        long bits = value & 0xFFFFFFFFL;
+        bits = (bits | bits << 16) & 0x0000FFFF0000FFFFL;
+        bits = (bits | bits << 8) & 0x00FF00FF00FF00FFL;
+        bits = (bits | bits << 4) & 0x0F0F0F0F0F0F0F0FL;
+        bits = (bits | bits << 2) & 0x3333333333333333L;
+        bits = (bits | bits << 1) & 0x5555555555555555L;
+        return bits;
+    }
+
+    // Area a merge would paint that neither rectangle needs.
+    private static long waste(Rect a, Rect b) {
+        return a.union(b).area() - (a.area() + b.area() - a.intersection(b).area());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d frames, %.1f regions and %.0f pixels painted per frame (buffer has %d)",
+                frames, frames == 0 ? 0 : (double) regionsPainted / frames, frames == 0 ? 0 : (double) pixelsPainted / frames,
+                buffer.pixels.length);
+    }
+}
+
+// Hover-heavy input against a headless dispatcher, to measure the loop itself.
+// Run with : java Solution bench
+class UIEventLoopBenchmark {
+
+    static void run(UIFactory factory) {
+        Button[] buttons = new Button[100];
+        Checkbox[] checkboxes = new Checkbox[100];
+        for (int i = 0; i < buttons.length; i++) {
+            buttons[i] = factory.createButton();
+            checkboxes[i] = factory.createCheckbox();
+        }
+        long[] handled = new long[1];
+        for (int round = 0; round < 3; round++) {
+            UIEventLoop loop = new UIEventLoop(events -> handled[0] += events.size());
+            int eventsPerFrame = 5_000;     // ~300k events per second at 60 frames per second
+            for (int frame = 0; frame < 200; frame++) {
+                for (int i = 0; i < eventsPerFrame; i++) {
+                    int widget = (i * 31 + frame) % buttons.length;
+                    if (i % 100 == 0) {
+                        loop.click(buttons[widget]);
+                    } else if (i % 10 == 0) {
+                        if (i % 20 == 0) {
+                            loop.check(checkboxes[widget]);
+                        } else {
+                            loop.uncheck(checkboxes[widget]);
+                        }
+                    } else {
+                        loop.hover(buttons[widget]);
+                    }
+                }
+                loop.runFrame();
+            }
+            System.out.println(loop + "  (" + handled[0] + ")");
+        }
+    }
+}
+
 // Create new concrete classes and concrete Factories for Mac and Linux
 
+// Large form with a few changed checkboxes : damage-based repaint against repainting everything.
+class WidgetTreeBenchmark {
+
+    static void run(UIFactory factory) {
+        PixelBuffer buffer = new PixelBuffer(1_920, 1_080);
+        PanelNode form = new PanelNode(buffer.bounds(), 0xFFF0F0F0);
+        List<CheckboxNode> checkboxes = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            checkboxes.add(form.add(bounds -> new CheckboxNode(bounds, factory.createCheckbox()), 16, 16));
+        }
+        WidgetTree tree = new WidgetTree(form, buffer);
+        tree.renderFrame();     // First frame paints everything
+        PixelBuffer reference = new PixelBuffer(buffer.width, buffer.height);
+        WidgetTree fullTree = new WidgetTree(form, reference);
+
+        Random random = new Random(7);
+        int frames = 5_000;
+        for (int round = 0; round < 3; round++) {
+            long damageNanos = 0;
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < 3; i++) {
+                    CheckboxNode checkbox = checkboxes.get(random.nextInt(checkboxes.size()));
+                    checkbox.setChecked(!checkbox.isChecked());
+                }
+                long start = System.nanoTime();
+                tree.renderFrame();
+                damageNanos += System.nanoTime() - start;
+            }
+            long start = System.nanoTime();
+            for (int frame = 0; frame < 100; frame++) {
+                fullTree.renderAll();
+            }
+            long fullNanos = (System.nanoTime() - start) / 100;
+            System.out.printf("2,000 checkboxes, 3 toggled per frame : damage repaint %.1f us, full repaint %.1f us per frame, same pixels: %b%n",
+                    damageNanos / 1e3 / frames, fullNanos / 1e3, Arrays.equals(buffer.pixels, reference.pixels));
+        }
+        System.out.println("Tree: " + tree);
+
+        // Damage merging on its own, from a few scattered rectangles to thousands
+        int[] counts = { 64, 256, 1_024, 4_096 };
+        List<List<Rect>> damages = new ArrayList<>();
+        for (int count : counts) {
+            List<Rect> damage = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                damage.add(new Rect(random.nextInt(buffer.width - 16), random.nextInt(buffer.height - 16), 16, 16));
+            }
+            damages.add(damage);
+        }
+        for (int round = 0; round < 3; round++) {
+            StringBuilder line = new StringBuilder("Damage merge :");
+            for (int c = 0; c < counts.length; c++) {
+                List<Rect> regions = List.of();
+                long start = System.nanoTime();
+                for (int i = 0; i < 50; i++) {
+                    regions = WidgetTree.merge(damages.get(c));
+                }
+                long area = 0;
+                for (Rect region : regions) {
+                    area += region.area();
+                }
+                line.append(String.format(" %,d rects -> %d regions, %,d pixels, %.1f us |", counts[c], regions.size(), area,
+                        (System.nanoTime() - start) / 50 / 1e3));
+            }
+            System.out.println(line);
+        }
+    }
+}
+
 class Solution{
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
 
         UIFactory factory = FactoryProvider.getFactory(OS.WINDOWS); // This could be determined at runtime based on OS
         Button button = factory.createButton();
@@ -85,5 +861,38 @@ class Solution{
         button.click();
         checkbox.check();
         checkbox.uncheck();
+
+        if (args.length > 0 && args[0].equals("bench")) {
+            UIEventLoopBenchmark.run(factory);
+            WidgetTreeBenchmark.run(factory);
+            return;
+        }
+
+        // Through the event loop : a burst of hovers, two clicks and a check/uncheck/check within one frame
+        UIEventLoop loop = new UIEventLoop();
+        loop.start(16_666_667);     // 60 frames per second
+        for (int i = 0; i < 300; i++) {
+            loop.hover(button);
+        }
+        loop.click(button);
+        loop.click(button);
+        loop.check(checkbox);
+        loop.uncheck(checkbox);
+        loop.check(checkbox);
+        loop.stop();
+        System.out.println(loop);
+
+        // Retained tree : the loop's events update node state, and a frame repaints only what changed
+        PixelBuffer screen = new PixelBuffer(320, 240);
+        PanelNode window = new PanelNode(screen.bounds(), 0xFFF0F0F0);
+        ButtonNode okButton = window.add(bounds -> new ButtonNode(bounds, button), 80, 24);
+        CheckboxNode rememberMe = window.add(bounds -> new CheckboxNode(bounds, checkbox), 16, 16);
+        WidgetTree tree = new WidgetTree(window, screen);
+        tree.renderFrame();
+        UIEventLoop treeLoop = new UIEventLoop(tree::apply);
+        treeLoop.hover(button);
+        treeLoop.check(checkbox);
+        treeLoop.runFrame();
+        System.out.println("Repainted " + tree.renderFrame() + ", checked: " + rememberMe.isChecked() + ", button at " + okButton.bounds);
     }
 }
@@ -1,22 +1,86 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
 
 interface Menu {
 
     void print(String indent);
     double getPrice();
+
+    // Number of items, 1 for an item and the subtree's item count for a group.
+    default int getItemCount() {
+        return 1;
+    }
+
+    // Cheapest and dearest item, NaN for an empty group.
+    default double getMinPrice() {
+        return getPrice();
+    }
+
+    default double getMaxPrice() {
+        return getPrice();
+    }
 }
 
-class MenuItem implements Menu {
+// Told about changes anywhere below the group it is registered on, e.g. to keep a search index in sync.
+interface MenuListener {
+
+    void added(Menu menu, ItemGroup group);
+
+    void removed(Menu menu, ItemGroup group);
+
+    void priceChanged(MenuItem item, double oldPrice);
+}
+
+// Menus the groups keep up to date : each one knows its group, so a change only travels up its own path.
+abstract class MenuNode implements Menu {
+
+    ItemGroup parent;
+
+    public ItemGroup getParent() {
+        return parent;
+    }
+}
+
+class MenuItem extends MenuNode {
 
     private final String name;
-    private final double price;
+    private double price;
 
     public MenuItem(String name, double price) {
         this.name = name;
         this.price = price;
     }
 
+    // Updates the cached totals of the groups above this item, and nothing else.
+    public void setPrice(double newPrice) {
+        double oldPrice = price;
+        if (oldPrice == newPrice) {
+            return;
+        }
+        this.price = newPrice;
+        if (parent != null) {
+            parent.childChanged(ItemGroup.toPaise(oldPrice), 1, oldPrice, oldPrice, this);
+            for (ItemGroup group = parent; group != null; group = group.parent) {
+                group.notifyPriceChanged(this, oldPrice);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
     @Override
     public void print(String indent) {
         System.out.println(indent + "🍽️ " + name + " - ₹" + price);
@@ -28,21 +92,120 @@ class MenuItem implements Menu {
     }
 }
 
-class ItemGroup implements Menu {
+// Caches the total, item count, min and max of its subtree, so reading them is O(1). Adding, removing or repricing
+// something updates only the groups on the path to the root. Min and max come from a count of each child's min and max,
+// so removing the cheapest child doesn't need a rescan.
+// Not thread-safe : changes and reads must come from one thread, or be locked by the caller.
+// The total is kept in whole paise : adding and subtracting doubles on every reprice would let rounding error pile up.
+// Only MenuItem and ItemGroup can be added, since other Menu implementations have no parent link to report their changes.
+class ItemGroup extends MenuNode {
 
     private final String name;
-    List<Menu> items = new ArrayList<>();
+    private final List<Menu> items = new ArrayList<>();
+    private long totalPaise;
+    private int count;
+    private final TreeMap<Double, Integer> childMins = new TreeMap<>();
+    private final TreeMap<Double, Integer> childMaxes = new TreeMap<>();
+    private List<MenuListener> listeners;   // Created on first registration, most groups have none
 
     public ItemGroup(String name) {
         this.name = name;
     }
 
     public void addItem(Menu menu) {
+        if (!(menu instanceof MenuNode node)) {
+            throw new IllegalArgumentException("Only MenuItem and ItemGroup can be added, the cached totals can't follow other Menus");
+        }
+        if (node.parent != null) {
+            throw new IllegalArgumentException("Already in group " + node.parent.name);
+        }
+        for (ItemGroup ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor == menu) {
+                throw new IllegalArgumentException("A group can't contain itself");
+            }
+        }
+        node.parent = this;
         items.add(menu);
+        childChanged(0, 0, Double.NaN, Double.NaN, menu);
+        for (ItemGroup group = this; group != null; group = group.parent) {
+            if (group.listeners != null) {
+                group.listeners.forEach(listener -> listener.added(menu, this));
+            }
+        }
     }
 
     public void removeItem(Menu menu) {
-        items.remove(menu);
+        if (!items.remove(menu)) {
+            return;
+        }
+        ((MenuNode) menu).parent = null;
+        updateAggregates(paiseOf(menu), menu.getItemCount(), menu.getMinPrice(), menu.getMaxPrice(), 0, 0, Double.NaN, Double.NaN);
+        for (ItemGroup group = this; group != null; group = group.parent) {
+            if (group.listeners != null) {
+                group.listeners.forEach(listener -> listener.removed(menu, this));
+            }
+        }
+    }
+
+    public List<Menu> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    public void addListener(MenuListener listener) {
+        if (listeners == null) {
+            listeners = new ArrayList<>(1);
+        }
+        listeners.add(listener);
+    }
+
+    public void removeListener(MenuListener listener) {
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    void notifyPriceChanged(MenuItem item, double oldPrice) {
+        if (listeners != null) {
+            listeners.forEach(listener -> listener.priceChanged(item, oldPrice));
+        }
+    }
+
+    static long toPaise(double price) {
+        return Math.round(price * 100);
+    }
+
+    private static long paiseOf(Menu menu) {
+        return menu instanceof ItemGroup group ? group.totalPaise : toPaise(menu.getPrice());
+    }
+
+    // child went from the old aggregates to its current ones.
+    void childChanged(long oldTotalPaise, int oldCount, double oldMin, double oldMax, Menu child) {
+        updateAggregates(oldTotalPaise, oldCount, oldMin, oldMax, paiseOf(child), child.getItemCount(), child.getMinPrice(), child.getMaxPrice());
+    }
+
+    private void updateAggregates(long oldTotalPaise, int oldCount, double oldMin, double oldMax,
+            long newTotalPaise, int newCount, double newMin, double newMax) {
+        long myOldTotal = totalPaise;
+        int myOldCount = count;
+        double myOldMin = getMinPrice();
+        double myOldMax = getMaxPrice();
+        totalPaise += newTotalPaise - oldTotalPaise;
+        count += newCount - oldCount;
+        if (oldCount > 0) {
+            decrement(childMins, oldMin);
+            decrement(childMaxes, oldMax);
+        }
+        if (newCount > 0) {
+            childMins.merge(newMin, 1, Integer::sum);
+            childMaxes.merge(newMax, 1, Integer::sum);
+        }
+        if (parent != null) {
+            parent.childChanged(myOldTotal, myOldCount, myOldMin, myOldMax, this);
+        }
+    }
+
+    private static void decrement(TreeMap<Double, Integer> counts, double value) {
+        counts.computeIfPresent(value, (ignored, n) -> n == 1 ? null : n - 1);
     }
 
     @Override
@@ -55,8 +218,347 @@ class ItemGroup implements Menu {
 
     @Override
     public double getPrice() {
-        
-        return items.stream().mapToDouble(Menu::getPrice).sum();
+        return totalPaise / 100.0;
+    }
+
+    @Override
+    public int getItemCount() {
+        return count;
+    }
+
+    @Override
+    public double getMinPrice() {
+        return childMins.isEmpty() ? Double.NaN : childMins.firstKey();
+    }
+
+    @Override
+    public double getMaxPrice() {
+        return childMaxes.isEmpty() ? Double.NaN : childMaxes.lastKey();
+    }
+
+    // What getPrice() used to do on every call : walk the whole subtree.
+    double recomputePrice() {
+        double sum = 0;
+        for (Menu item : items) {
+            sum += item instanceof ItemGroup group ? group.recomputePrice() : item.getPrice();
+        }
+        return sum;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
+
+// Price reads and reprices on a large menu, cached aggregates against walking the tree.
+// Run with : java Solution bench
+class MenuAggregateBenchmark {
+
+    static void run() {
+        ItemGroup menu = new ItemGroup("Menu");
+        List<MenuItem> items = new ArrayList<>();
+        for (int section = 0; section < 20; section++) {
+            ItemGroup sectionGroup = new ItemGroup("Section " + section);
+            for (int category = 0; category < 25; category++) {
+                ItemGroup categoryGroup = new ItemGroup("Category " + section + "." + category);
+                for (int i = 0; i < 20; i++) {
+                    MenuItem item = new MenuItem("Dish " + items.size(), 100 + items.size() % 400);
+                    items.add(item);
+                    categoryGroup.addItem(item);
+                }
+                sectionGroup.addItem(categoryGroup);
+            }
+            menu.addItem(sectionGroup);
+        }
+        Random random = new Random(11);
+        for (int round = 0; round < 3; round++) {
+            double sink = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < 100_000; i++) {
+                items.get(random.nextInt(items.size())).setPrice(100 + random.nextInt(400));
+                sink += menu.getPrice() + menu.getMinPrice() + menu.getMaxPrice();
+            }
+            long cachedNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < 1_000; i++) {
+                sink += menu.recomputePrice();
+            }
+            long walkNanos = System.nanoTime() - start;
+            System.out.printf("%,d items : reprice + read total/min/max %.2f us, full walk for the total %.1f us  (%.0f)%n",
+                    menu.getItemCount(), cachedNanos / 1e3 / 100_000, walkNanos / 1e3 / 1_000, sink);
+        }
+        System.out.printf("Cached total %.1f, walked total %.1f%n", menu.getPrice(), menu.recomputePrice());
+    }
+}
+
+record SearchHit(MenuItem item, String path) {
+
+    @Override
+    public String toString() {
+        return path + " > " + item.getName() + " - ₹" + item.getPrice();
+    }
+}
+
+// Search over the items below a group, kept in sync through MenuListener instead of walking the tree per query.
+// - Names : a sorted dictionary of lower-case words, each mapped to the items containing it. A typeahead query is a prefix
+//   range scan of that dictionary, and every word of the query must prefix some word of the name ("chi tik" finds
+//   "Chicken Tikka Masala").
+// - Prices : items by price in a sorted map, for range queries.
+// Hits carry the item's group path, worked out from the parent links when the query runs, so moving a group never leaves
+// stale paths behind.
+// Items under one word or price are kept in the order they were indexed, so results are the same from run to run.
+// Not thread-safe, like ItemGroup itself : the menu and its index belong to one thread, or to callers that lock around both.
+class MenuIndex implements MenuListener {
+
+    private final ItemGroup root;
+    private final TreeMap<String, Set<MenuItem>> words = new TreeMap<>();
+    private final TreeMap<Double, Set<MenuItem>> prices = new TreeMap<>();
+    private int size;
+
+    MenuIndex(ItemGroup root) {
+        this.root = root;
+        index(root);
+        root.addListener(this);
+    }
+
+    // Up to limit items whose name matches every word of query as a prefix : in dictionary order of the matched word,
+    // then in indexing order.
+    public List<SearchHit> typeahead(String query, int limit) {
+        String[] terms = tokenize(query);
+        if (terms.length == 0 || limit <= 0) {
+            return List.of();
+        }
+        // Drive the scan with the longest term, usually the most selective, and check the others per item
+        String driver = terms[0];
+        for (String term : terms) {
+            if (term.length() > driver.length()) {
+                driver = term;
+            }
+        }
+        List<SearchHit> hits = new ArrayList<>(limit);
+        Set<MenuItem> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Set<MenuItem> matches : words.subMap(driver, true, driver + Character.MAX_VALUE, false).values()) {
+            for (MenuItem item : matches) {
+                if (seen.add(item) && matchesAll(item, terms)) {
+                    hits.add(new SearchHit(item, pathOf(item)));
+                    if (hits.size() == limit) {
+                        return hits;
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    // Up to limit items priced within [min, max], cheapest first, then in the order they were indexed or last repriced.
+    public List<SearchHit> priceBetween(double min, double max, int limit) {
+        List<SearchHit> hits = new ArrayList<>(Math.min(limit, 1_024));
+        for (Set<MenuItem> matches : prices.subMap(min, true, max, true).values()) {
+            for (MenuItem item : matches) {
+                if (hits.size() == limit) {
+                    return hits;
+                }
+                hits.add(new SearchHit(item, pathOf(item)));
+            }
+        }
+        return hits;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Stops tracking the menu.
+    public void close() {
+        root.removeListener(this);
+    }
+
+    @Override
+    public void added(Menu menu, ItemGroup group) {
+        index(menu);
+    }
+
+    @Override
+    public void removed(Menu menu, ItemGroup group) {
+        unindex(menu);
+    }
+
+    @Override
+    public void priceChanged(MenuItem item, double oldPrice) {
+        removeFrom(prices, oldPrice, item);
+        prices.computeIfAbsent(item.getPrice(), ignored -> new LinkedHashSet<>(2)).add(item);
+    }
+
+    private void index(Menu menu) {
+        if (menu instanceof ItemGroup group) {
+            for (Menu child : group.getItems()) {
+                index(child);
+            }
+        } else if (menu instanceof MenuItem item) {
+            for (String word : tokenize(item.getName())) {
+                words.computeIfAbsent(word, ignored -> new LinkedHashSet<>(2)).add(item);
+            }
+            prices.computeIfAbsent(item.getPrice(), ignored -> new LinkedHashSet<>(2)).add(item);
+            size++;
+        }
+    }
+
+    private void unindex(Menu menu) {
+        if (menu instanceof ItemGroup group) {
+            for (Menu child : group.getItems()) {
+                unindex(child);
+            }
+        } else if (menu instanceof MenuItem item) {
+            for (String word : tokenize(item.getName())) {
+                removeFrom(words, word, item);
+            }
+            removeFrom(prices, item.getPrice(), item);
+            size--;
+        }
+    }
+
+    private static <K> void removeFrom(TreeMap<K, Set<MenuItem>> map, K key, MenuItem item) {
+        Set<MenuItem> items = map.get(key);
+        if (items != null && items.remove(item) && items.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    private static boolean matchesAll(MenuItem item, String[] terms) {
+        if (terms.length == 1) {
+            return true;    // The driver term matched already
+        }
+        String name = item.getName();
+        for (String term : terms) {
+            if (!hasWordStartingWith(name, term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Checks the name in place, no lower-case copy or split per candidate.
+    private static boolean hasWordStartingWith(String name, String term) {
+        for (int i = 0; i <= name.length() - term.length(); i++) {
+            boolean wordStart = i == 0 || !Character.isLetterOrDigit(name.charAt(i - 1));
+            if (wordStart && Character.isLetterOrDigit(name.charAt(i)) && name.regionMatches(true, i, term, 0, term.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Groups from the index root down to the item's group.
+    private String pathOf(MenuItem item) {
+        List<String> names = new ArrayList<>();
+        for (ItemGroup group = item.getParent(); group != null; group = group.getParent()) {
+            names.add(group.getName());
+            if (group == root) {
+                break;
+            }
+        }
+        Collections.reverse(names);
+        return String.join(" > ", names);
+    }
+
+    // Lower-case runs of letters and digits.
+    private static String[] tokenize(String text) {
+        List<String> tokens = new ArrayList<>(4);
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+}
+
+// Typeahead and price-range latency on a 100k-item menu, with items added, removed and repriced in between.
+// Everything runs on one thread : the reprices are interleaved with the queries, not concurrent with them.
+// The max is reported with the garbage collections of the same round, since on a small heap it is usually one GC pause.
+class MenuSearchBenchmark {
+
+    private static final String[] STYLES = { "Butter", "Tandoori", "Kadai", "Masala", "Chilli", "Hyderabadi", "Malabar",
+            "Schezwan", "Lemon", "Garlic", "Achari", "Afghani", "Kolhapuri", "Mughlai", "Punjabi", "Goan", "Chettinad" };
+    private static final String[] BASES = { "Chicken", "Paneer", "Mutton", "Prawn", "Fish", "Egg", "Mushroom", "Aloo",
+            "Gobi", "Dal", "Veg", "Corn", "Soya", "Crab", "Keema", "Rajma", "Chana" };
+    private static final String[] DISHES = { "Biryani", "Curry", "Tikka", "Noodles", "Fried Rice", "Kebab", "Roll",
+            "Soup", "Pulao", "Korma", "Vindaloo", "Manchurian", "Lababdar", "Handi", "Do Pyaza", "65" };
+
+    static void run() {
+        Random random = new Random(3);
+        ItemGroup menu = new ItemGroup("Menu");
+        MenuIndex index = new MenuIndex(menu);
+        List<MenuItem> items = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int section = 0; section < 50; section++) {
+            ItemGroup sectionGroup = new ItemGroup("Section " + section);
+            menu.addItem(sectionGroup);
+            for (int category = 0; category < 40; category++) {
+                ItemGroup categoryGroup = new ItemGroup("Category " + section + "." + category);
+                for (int i = 0; i < 50; i++) {
+                    MenuItem item = new MenuItem(STYLES[random.nextInt(STYLES.length)] + " " + BASES[random.nextInt(BASES.length)]
+                            + " " + DISHES[random.nextInt(DISHES.length)], 80 + random.nextInt(500));
+                    items.add(item);
+                    categoryGroup.addItem(item);
+                }
+                sectionGroup.addItem(categoryGroup);   // Indexed as a whole subtree
+            }
+        }
+        System.out.printf("Indexed %,d items in %d ms%n", index.size(), (System.nanoTime() - start) / 1_000_000);
+
+        String[] queries = { "b", "bu", "chi", "chicken ti", "pan lab", "hyd bir", "ma", "fried", "gar mush", "65", "x" };
+        for (int round = 0; round < 3; round++) {
+            long[] latencies = new long[20_000];
+            long found = 0;
+            long gcCount = -gcCount();
+            long gcMillis = -gcMillis();
+            for (int i = 0; i < latencies.length; i++) {
+                if (i % 10 == 0) {     // Reprices interleaved on this thread, the index is not safe for concurrent use
+                    items.get(random.nextInt(items.size())).setPrice(80 + random.nextInt(500));
+                }
+                long queryStart = System.nanoTime();
+                found += index.typeahead(queries[i % queries.length], 10).size();
+                latencies[i] = System.nanoTime() - queryStart;
+            }
+            gcCount += gcCount();
+            gcMillis += gcMillis();
+            Arrays.sort(latencies);
+            start = System.nanoTime();
+            for (int i = 0; i < 1_000; i++) {
+                found += index.priceBetween(200 + i % 100, 210 + i % 100, 50).size();
+            }
+            long rangeNanos = (System.nanoTime() - start) / 1_000;
+            System.out.printf("typeahead (10 hits) median %.1f us, p99 %.1f us, max %.1f us (%d GCs, %d ms, in the round) | price range (50 hits) %.1f us  (%d)%n",
+                    latencies[latencies.length / 2] / 1e3, latencies[latencies.length * 99 / 100] / 1e3,
+                    latencies[latencies.length - 1] / 1e3, gcCount, gcMillis, rangeNanos / 1e3, found);
+        }
+        ItemGroup removed = (ItemGroup) menu.getItems().get(0);
+        start = System.nanoTime();
+        menu.removeItem(removed);
+        System.out.printf("Removed a %,d-item section in %.2f ms, %,d items left in the index%n",
+                removed.getItemCount(), (System.nanoTime() - start) / 1e6, index.size());
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
     }
 }
 
@@ -76,6 +578,8 @@ class Solution {
         briyaniItems.addItem(nonVegBriyaniItems);
 
         briyaniItems.print("");
+        System.out.printf("%d items, total ₹%.0f, from ₹%.0f to ₹%.0f%n",
+                briyaniItems.getItemCount(), briyaniItems.getPrice(), briyaniItems.getMinPrice(), briyaniItems.getMaxPrice());
     }
 
     private static void noodles() {
@@ -113,9 +617,29 @@ class Solution {
         gravyItems.addItem(nonVegGravyItems);
 
         gravyItems.print("");
+
+        // A price change only updates the groups above the item
+        MenuItem butterChicken = (MenuItem) nonVegGravyItems.getItems().get(0);
+        butterChicken.setPrice(320);
+        vegGravyItems.removeItem(specialVegGravyItems);
+        System.out.printf("After changes : %d items, total ₹%.0f, from ₹%.0f to ₹%.0f%n",
+                gravyItems.getItemCount(), gravyItems.getPrice(), gravyItems.getMinPrice(), gravyItems.getMaxPrice());
+
+        // Search : the index follows the menu as it changes
+        MenuIndex index = new MenuIndex(gravyItems);
+        vegGravyItems.addItem(specialVegGravyItems);
+        System.out.println("\"pan\": " + index.typeahead("pan", 5));
+        System.out.println("\"chi tik\": " + index.typeahead("chi tik", 5));
+        System.out.println("₹240-₹300: " + index.priceBetween(240, 300, 10));
     }
 
     public static void main(String[] args) {
+
+        if (args.length > 0 && args[0].equals("bench")) {
+            MenuAggregateBenchmark.run();
+            MenuSearchBenchmark.run();
+            return;
+        }
     
         briyani();
         noodles();